@@ -0,0 +1,96 @@
+package org.ucb.c5.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.ucb.c5.composition.AminoAcidToCodon;
+import org.ucb.c5.composition.CodonUsageTable;
+import org.ucb.c5.composition.DesignContext;
+import org.ucb.c5.composition.RBSLibrary;
+import org.ucb.c5.composition.SequenceChecker;
+import org.ucb.c5.composition.model.RBSOption;
+import org.ucb.c5.sequtils.Translate;
+
+/**
+ * Seeded random inputs for the benchmarks, so every run measures the same work
+ */
+final class BenchmarkData {
+
+    static final String BASES = "ACGT";
+    static final String AMINO_ACIDS = "ACDEFGHIKLMNPQRSTVWY";
+
+    private BenchmarkData() { }
+
+    static String randomDna(Random rand, int length) {
+        StringBuilder out = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            out.append(BASES.charAt(rand.nextInt(4)));
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return random DNA with no forbidden site, so checks scan all of it
+     */
+    static String siteFreeDna(Random rand, int length, SequenceChecker checker) {
+        int reach = checker.getMaxSiteLength();
+        StringBuilder out = new StringBuilder(length);
+        while (out.length() < length) {
+            out.append(BASES.charAt(rand.nextInt(4)));
+            int start = Math.max(0, out.length() - reach);
+            if (!checker.run(out, start, out.length())) {
+                out.setLength(out.length() - 1);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return a random protein starting with methionine
+     */
+    static String randomPeptide(Random rand, int length) {
+        StringBuilder out = new StringBuilder(length);
+        out.append('M');
+        while (out.length() < length) {
+            out.append(AMINO_ACIDS.charAt(rand.nextInt(AMINO_ACIDS.length())));
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return a random coding sequence for a peptide
+     */
+    static String randomCds(Random rand, String peptide, AminoAcidToCodon aaToCodon) {
+        StringBuilder out = new StringBuilder(3 * peptide.length());
+        for (int i = 0; i < peptide.length(); i++) {
+            List<String> codons = aaToCodon.getCodons(peptide.charAt(i));
+            out.append(codons.get(rand.nextInt(codons.size())));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Builds a design context on a synthetic RBS library of a given size,
+     * since the E. coli gene table is not shipped with the sources
+     */
+    static DesignContext context(int librarySize, long seed) throws Exception {
+        Random rand = new Random(seed);
+        AminoAcidToCodon aaToCodon = new AminoAcidToCodon();
+        aaToCodon.initiate();
+        CodonUsageTable usage = new CodonUsageTable();
+        usage.initiate(aaToCodon);
+        SequenceChecker checker = new SequenceChecker();
+        checker.initiate();
+        Translate translate = new Translate();
+        translate.initiate();
+
+        List<RBSOption> options = new ArrayList<>();
+        for (int i = 0; i < librarySize; i++) {
+            String cds = randomCds(rand, randomPeptide(rand, 100 + rand.nextInt(300)), aaToCodon);
+            String rbs = randomDna(rand, 30 + rand.nextInt(10));
+            String first6aas = translate.run(cds.substring(0, 18));
+            options.add(new RBSOption("gene" + i, "synthetic gene " + i, rbs, cds, first6aas));
+        }
+        return new DesignContext(aaToCodon, usage, checker, new RBSLibrary(options));
+    }
+}
@@ -0,0 +1,151 @@
+package org.ucb.c5.benchmarks;
+
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.ucb.c5.utils.TSVParser;
+
+/**
+ * Runs the benchmarks with the GC profiler, writes the scores as TSV and
+ * compares them with a baseline
+ *
+ *   mvn -B package
+ *   java -jar benchmarks/target/benchmarks.jar [regex] [-o results.tsv] [-b benchmarks/baseline.tsv]
+ *
+ * The regex picks benchmarks (all by default).  Each row of the TSV holds the
+ * benchmark, its parameters, the average time per call with its error and
+ * unit, and the bytes allocated per call.  If the baseline file exists, every
+ * score is printed next to its baseline score.  To refresh the baseline, copy
+ * a results file over benchmarks/baseline.tsv.
+ *
+ * Plain JMH options still work by running org.openjdk.jmh.Main from the jar,
+ * ie java -cp benchmarks/target/benchmarks.jar org.openjdk.jmh.Main -prof gc
+ */
+public class BenchmarkRunner {
+
+    private static final String[] COLUMNS = {"benchmark", "params", "score", "error", "unit", "alloc_bytes_per_op"};
+
+    public static void main(String[] args) throws Exception {
+        String include = ".*";
+        Path results = Paths.get("results.tsv");
+        Path baseline = Paths.get("benchmarks/baseline.tsv");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o")) {
+                results = Paths.get(args[++i]);
+            } else if (args[i].equals("-b")) {
+                baseline = Paths.get(args[++i]);
+            } else {
+                include = args[i];
+            }
+        }
+
+        Options options = new OptionsBuilder()
+                .include(BenchmarkRunner.class.getPackage().getName() + "\\..*(" + include + ").*")
+                .exclude(BenchmarkRunner.class.getName())
+                .forks(1)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> runs = new Runner(options).run();
+
+        List<String[]> rows = new ArrayList<>();
+        for (RunResult run : runs) {
+            rows.add(toRow(run));
+        }
+        write(results, rows);
+        System.out.println("wrote " + rows.size() + " results to " + results);
+
+        if (Files.isRegularFile(baseline)) {
+            compare(rows, read(baseline));
+        }
+    }
+
+    private static String[] toRow(RunResult run) {
+        BenchmarkParams params = run.getParams();
+        String name = params.getBenchmark();
+        name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+
+        //parameters in a fixed order, so rows from different runs line up
+        Map<String, String> values = new TreeMap<>();
+        for (String key : params.getParamsKeys()) {
+            values.put(key, params.getParam(key));
+        }
+        StringBuilder param_text = new StringBuilder();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (param_text.length() > 0) {
+                param_text.append(',');
+            }
+            param_text.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+
+        Result primary = run.getPrimaryResult();
+        Result alloc = run.getSecondaryResults().get("gc.alloc.rate.norm");
+        return new String[]{
+            name,
+            param_text.toString(),
+            String.format(Locale.ROOT, "%.3f", primary.getScore()),
+            String.format(Locale.ROOT, "%.3f", primary.getScoreError()),
+            primary.getScoreUnit(),
+            alloc == null ? "NaN" : String.format(Locale.ROOT, "%.1f", alloc.getScore())
+        };
+    }
+
+    private static void write(Path path, List<String[]> rows) throws Exception {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write(String.join("\t", COLUMNS) + "\n");
+            for (String[] row : rows) {
+                out.write(String.join("\t", row) + "\n");
+            }
+        }
+    }
+
+    /**
+     * @return the score of each benchmark and parameters in a results file
+     */
+    private static Map<String, Double> read(Path path) throws Exception {
+        Map<String, Double> scores = new HashMap<>();
+        try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+             TSVParser.Cursor rows = new TSVParser().open(in, true)) {
+            int benchmark = rows.columnIndex("benchmark");
+            int params = rows.columnIndex("params");
+            int score = rows.columnIndex("score");
+            while (rows.next()) {
+                scores.put(rows.getString(benchmark) + " " + rows.getString(params), rows.getDouble(score));
+            }
+        }
+        return scores;
+    }
+
+    private static void compare(List<String[]> rows, Map<String, Double> baseline) {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-40s %-36s %12s %12s %8s%n", "benchmark", "params", "baseline", "now", "ratio");
+        for (String[] row : rows) {
+            Double before = baseline.get(row[0] + " " + row[1]);
+            double now = Double.parseDouble(row[2]);
+            String ratio = before == null ? "new" : String.format(Locale.ROOT, "%.2fx", now / before);
+            System.out.printf(Locale.ROOT, "%-40s %-36s %12s %12.3f %8s  %s%n", row[0], row[1],
+                    before == null ? "-" : String.format(Locale.ROOT, "%.3f", before), now, ratio, row[4]);
+        }
+    }
+}
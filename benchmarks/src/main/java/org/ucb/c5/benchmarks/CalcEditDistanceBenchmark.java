@@ -0,0 +1,44 @@
+package org.ucb.c5.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.c5.sequtils.CalcEditDistance;
+
+/**
+ * CalcEditDistance.run between two random peptides; 6 is the RBSChooser
+ * case, longer strings span several bit-vector words
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CalcEditDistanceBenchmark {
+
+    @Param({"6", "64", "512"})
+    public int length;
+
+    private CalcEditDistance distance;
+    private String s1;
+    private String s2;
+
+    @Setup
+    public void setup() throws Exception {
+        distance = new CalcEditDistance();
+        distance.initiate();
+        Random rand = new Random(100);
+        s1 = BenchmarkData.randomPeptide(rand, length);
+        s2 = BenchmarkData.randomPeptide(rand, length);
+    }
+
+    @Benchmark
+    public int run() throws Exception {
+        return distance.run(s1, s2);
+    }
+}
@@ -0,0 +1,41 @@
+package org.ucb.c5.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.c5.sequtils.HairpinCounter;
+
+/**
+ * HairpinCounter.run over random DNA; lengths below 256 use the scalar loop,
+ * longer ones the bit-parallel engine
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HairpinCounterBenchmark {
+
+    @Param({"64", "1000", "10000"})
+    public int length;
+
+    private HairpinCounter counter;
+    private String seq;
+
+    @Setup
+    public void setup() throws Exception {
+        counter = new HairpinCounter();
+        counter.initiate();
+        seq = BenchmarkData.randomDna(new Random(100), length);
+    }
+
+    @Benchmark
+    public double run() throws Exception {
+        return counter.run(seq);
+    }
+}
@@ -0,0 +1,52 @@
+package org.ucb.c5.benchmarks;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.c5.composition.DesignContext;
+import org.ucb.c5.composition.RBSChooser;
+import org.ucb.c5.composition.model.RBSOption;
+
+/**
+ * RBSChooser.run for a random 300 amino acid protein against synthetic RBS
+ * libraries of increasing size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RBSChooserBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int librarySize;
+
+    private RBSChooser chooser;
+    private String cds;
+    private String peptide;
+    private Set<RBSOption> ignores;
+
+    @Setup
+    public void setup() throws Exception {
+        DesignContext context = BenchmarkData.context(librarySize, 100);
+        chooser = new RBSChooser();
+        chooser.initiate(context);
+
+        Random rand = new Random(200);
+        peptide = BenchmarkData.randomPeptide(rand, 300);
+        cds = BenchmarkData.randomCds(rand, peptide, context.getAminoAcidToCodon());
+        ignores = new HashSet<>();
+    }
+
+    @Benchmark
+    public RBSOption run() throws Exception {
+        return chooser.run(cds, peptide, ignores);
+    }
+}
@@ -0,0 +1,41 @@
+package org.ucb.c5.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.ucb.c5.composition.SequenceChecker;
+
+/**
+ * SequenceChecker.run over DNA free of forbidden sites, so every call scans
+ * the whole sequence
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SequenceCheckerBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int length;
+
+    private SequenceChecker checker;
+    private String seq;
+
+    @Setup
+    public void setup() {
+        checker = new SequenceChecker();
+        checker.initiate();
+        seq = BenchmarkData.siteFreeDna(new Random(100), length, checker);
+    }
+
+    @Benchmark
+    public boolean run() {
+        return checker.run(seq);
+    }
+}
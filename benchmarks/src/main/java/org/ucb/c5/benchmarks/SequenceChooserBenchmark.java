@@ -0,0 +1,50 @@
+package org.ucb.c5.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ucb.c5.composition.SequenceChooser;
+
+/**
+ * SequenceChooser.run on a random protein with each engine.  The window memo
+ * is off, so every call does the full search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+public class SequenceChooserBenchmark {
+
+    @Param({"100", "300", "1000"})
+    public int proteinLength;
+
+    @Param({"SAMPLING", "BEAM"})
+    public SequenceChooser.Engine engine;
+
+    private SequenceChooser chooser;
+    private String peptide;
+
+    @Setup
+    public void setup() throws Exception {
+        chooser = new SequenceChooser();
+        chooser.initiate(BenchmarkData.context(1, 100));
+        chooser.setEngine(engine);
+        chooser.setMemoSize(0);
+        peptide = BenchmarkData.randomPeptide(new Random(100), proteinLength);
+    }
+
+    @Benchmark
+    public String[] run() throws Exception {
+        return chooser.run(peptide);
+    }
+}
@@ -1,39 +1,70 @@
 package org.ucb.c5.composition;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * class to hold an amino acid to codon table
+ *
+ * The table is built by the constructor and never changes, so one instance
+ * can be shared between threads.
  */
 public class AminoAcidToCodon {
-    public Map<Character, String[]> table;
+    private final Map<Character, List<String>> table;
+
+    public AminoAcidToCodon() {
+        Map<Character, List<String>> table = new HashMap<>();
+        put(table, 'A', "GCG", "GCA", "GCC", "GCT");
+        put(table, 'C', "TGC", "TGT");
+        put(table, 'D', "GAT", "GAC");
+        put(table, 'E', "GAA", "GAG");
+        put(table, 'F', "TTC", "TTT");
+        put(table, 'G', "GGT", "GGC", "GGA", "GGG");
+        put(table, 'H', "CAC", "CAT");
+        put(table, 'I', "ATC", "ATT", "ATA");
+        put(table, 'K', "AAA", "AAG");
+        put(table, 'L', "CTG", "CTA", "CTC", "CTT", "TTA", "TTG");
+        put(table, 'M', "ATG");
+        put(table, 'N', "AAC", "AAT");
+        put(table, 'P', "CCG", "CCA", "CCC", "CCT");
+        put(table, 'Q', "CAG", "CAA");
+        put(table, 'R', "CGT", "CGC", "CGA", "CGG", "AGA", "AGG");
+        put(table, 'S', "TCT", "TCC", "TCA", "TCG", "AGC", "AGT");
+        put(table, 'T', "ACC", "ACT", "ACA", "ACG");
+        put(table, 'V', "GTT", "GTC", "GTA", "GTG");
+        put(table, 'W', "TGG");
+        put(table, 'Y', "TAC", "TAT");
+        this.table = Collections.unmodifiableMap(table);
+    }
 
     public void initiate() throws Exception {
-        table = new HashMap<>();
-        table.put('A', new String[]{"GCG", "GCA", "GCC", "GCT"});
-        table.put('C', new String[]{"TGC", "TGT"});
-        table.put('D', new String[]{"GAT", "GAC"});
-        table.put('E', new String[]{"GAA", "GAG"});
-        table.put('F', new String[]{"TTC", "TTT"});
-        table.put('G', new String[]{"GGT", "GGC", "GGA", "GGG"});
-        table.put('H', new String[]{"CAC", "CAT"});
-        table.put('I', new String[]{"ATC", "ATT", "ATA"});
-        table.put('K', new String[]{"AAA", "AAG"});
-        table.put('L', new String[]{"CTG", "CTA", "CTC", "CTT", "TTA", "TTG"});
-        table.put('M', new String[]{"ATG"});
-        table.put('N', new String[]{"AAC", "AAT"});
-        table.put('P', new String[]{"CCG", "CCA", "CCC", "CCT"});
-        table.put('Q', new String[]{"CAG", "CAA"});
-        table.put('R', new String[]{"CGT", "CGC", "CGA", "CGG", "AGA", "AGG"});
-        table.put('S', new String[]{"TCT", "TCC", "TCA", "TCG", "AGC", "AGT"});
-        table.put('T', new String[]{"ACC", "ACT", "ACA", "ACG"});
-        table.put('V', new String[]{"GTT", "GTC", "GTA", "GTG"});
-        table.put('W', new String[]{"TGG"});
-        table.put('Y', new String[]{"TAC", "TAT"});
+        //the table is built by the constructor
+    }
+
+    /**
+     * @param aa an amino acid, upper case
+     * @return its synonymous codons, read-only, or null if aa is not an amino acid
+     */
+    public List<String> getCodons(char aa) {
+        return table.get(aa);
+    }
+
+    /**
+     * @return every amino acid the table has codons for
+     */
+    public Set<Character> getAminoAcids() {
+        return table.keySet();
     }
 
     public void run() throws Exception {
         //does nothing
     }
+
+    private static void put(Map<Character, List<String>> table, char aa, String... codons) {
+        table.put(aa, Collections.unmodifiableList(Arrays.asList(codons)));
+    }
 }
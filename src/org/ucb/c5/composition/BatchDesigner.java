@@ -0,0 +1,309 @@
+package org.ucb.c5.composition;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.ucb.c5.composition.model.Host;
+import org.ucb.c5.composition.model.RBSOption;
+import org.ucb.c5.composition.model.Transcript;
+import org.ucb.c5.utils.FastaReader;
+import org.ucb.c5.utils.FastaWriter;
+import org.ucb.c5.utils.MetricsRegistry;
+
+/**
+ * Designs a transcript for every protein of a FASTA file
+ *
+ * Proteins flow through three stages joined by bounded queues: the calling
+ * thread reads records, a pool of workers designs them on one shared
+ * TranscriptDesigner, and a writer thread writes each transcript as soon as it
+ * is done.  A stage that gets ahead blocks until the next catches up, so only
+ * a few proteins per worker are ever in memory, whether the file holds ten
+ * proteins or millions.
+ *
+ * Each protein is designed on its own, with no RBSs excluded.  Transcripts are
+ * written as FASTA, RBS in lowercase then CDS and stop codon in uppercase,
+ * named after their protein and in the order they finish.  Proteins that
+ * cannot be designed are reported on System.err and counted.
+ */
+public class BatchDesigner {
+
+    private TranscriptDesigner designer;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int queue_size = 0; //0 picks a size from the number of threads
+    private Host host = null;
+
+    public void initiate() throws Exception {
+        initiate(DesignContext.getDefault());
+    }
+
+    public void initiate(DesignContext context) throws Exception {
+        designer = new TranscriptDesigner();
+        designer.initiate(context);
+    }
+
+    /**
+     * @param threads the number of proteins designed at once
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("need at least 1 thread: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Sets how many proteins may wait between two stages; by default twice
+     * the number of threads
+     *
+     * @param queue_size the capacity of each queue
+     */
+    public void setQueueSize(int queue_size) {
+        if (queue_size < 1) {
+            throw new IllegalArgumentException("queue size must be at least 1: " + queue_size);
+        }
+        this.queue_size = queue_size;
+    }
+
+    /**
+     * @param host the organism the designs are for, or null to sample codons uniformly
+     */
+    public void setHost(Host host) {
+        this.host = host;
+    }
+
+    /**
+     * @return the designer the workers share, so its settings can be changed
+     */
+    public TranscriptDesigner getTranscriptDesigner() {
+        return designer;
+    }
+
+    /**
+     * Designs every protein read from a FASTA stream
+     *
+     * @param in protein FASTA; read to the end but not closed
+     * @param out where transcripts are written as FASTA; flushed but not closed
+     * @return how many proteins were designed and how many failed
+     * @throws Exception if reading or writing fails, or the calling thread is interrupted
+     */
+    public Summary run(Reader in, Writer out) throws Exception {
+        int capacity = queue_size > 0 ? queue_size : 2 * threads;
+        BlockingQueue<Job> jobs = new ArrayBlockingQueue<>(capacity);
+        BlockingQueue<Job> done = new ArrayBlockingQueue<>(capacity);
+        Summary summary = new Summary();
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Worker(jobs, done), "batch-designer-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        ResultWriter writer = new ResultWriter(done, new FastaWriter(out), summary);
+        Thread writer_thread = new Thread(writer, "batch-designer-writer");
+        writer_thread.setDaemon(true);
+        writer_thread.start();
+
+        //Read proteins, blocking whenever the workers fall behind
+        Exception failure = null;
+        try {
+            FastaReader reader = new FastaReader(in);
+            FastaReader.Record record;
+            while ((record = reader.next()) != null && writer.failure == null) {
+                jobs.put(new Job(record));
+            }
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            //one end marker per worker; each passes it on to the writer
+            for (int i = 0; i < threads; i++) {
+                jobs.put(Job.END);
+            }
+        }
+        writer_thread.join();
+
+        if (failure != null) {
+            throw failure;
+        }
+        if (writer.failure != null) {
+            throw writer.failure;
+        }
+        out.flush();
+        return summary;
+    }
+
+    /**
+     * Designs proteins until it takes an end marker
+     */
+    private class Worker implements Runnable {
+        private final BlockingQueue<Job> jobs;
+        private final BlockingQueue<Job> done;
+
+        Worker(BlockingQueue<Job> jobs, BlockingQueue<Job> done) {
+            this.jobs = jobs;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Job job = jobs.take();
+                    if (job == Job.END) {
+                        done.put(Job.END);
+                        return;
+                    }
+                    try {
+                        String peptide = job.record.getSequence();
+                        //a trailing stop is common in protein FASTA but is not an amino acid
+                        if (peptide.endsWith("*")) {
+                            peptide = peptide.substring(0, peptide.length() - 1);
+                        }
+                        job.transcript = designer.run(peptide, new HashSet<RBSOption>(), host);
+                    } catch (Throwable e) {
+                        //errors too, or this worker would die without passing on its end marker and hang run()
+                        job.error = e;
+                    }
+                    done.put(job);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Writes designs as they finish, until every worker has ended
+     */
+    private class ResultWriter implements Runnable {
+        private final BlockingQueue<Job> done;
+        private final FastaWriter fasta;
+        private final Summary summary;
+        private volatile Exception failure;
+
+        ResultWriter(BlockingQueue<Job> done, FastaWriter fasta, Summary summary) {
+            this.done = done;
+            this.fasta = fasta;
+            this.summary = summary;
+        }
+
+        @Override
+        public void run() {
+            int ended = 0;
+            try {
+                while (ended < threads) {
+                    Job job = done.take();
+                    if (job == Job.END) {
+                        ended++;
+                        continue;
+                    }
+                    //after a write error keep draining, so no worker blocks forever
+                    if (failure != null) {
+                        continue;
+                    }
+                    try {
+                        write(job);
+                    } catch (Exception e) {
+                        failure = e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void write(Job job) throws Exception {
+            FastaReader.Record record = job.record;
+            if (job.error != null) {
+                System.err.println("could not design " + record.getName() + ": " + job.error);
+                summary.failed.incrementAndGet();
+                return;
+            }
+
+            Transcript mrna = job.transcript;
+            fasta.begin(record.getName(), "rbs=" + mrna.getRbs().getName());
+            fasta.append(mrna.getRbs().getRbs().toLowerCase());
+            for (String codon : mrna.getCodons()) {
+                fasta.append(codon);
+            }
+            fasta.append("TAA");
+            fasta.end();
+            summary.designed.incrementAndGet();
+        }
+    }
+
+    /**
+     * A protein on its way through the pipeline
+     */
+    private static class Job {
+        private static final Job END = new Job(null);
+
+        private final FastaReader.Record record;
+        private Transcript transcript;
+        private Throwable error;
+
+        Job(FastaReader.Record record) {
+            this.record = record;
+        }
+    }
+
+    /**
+     * The outcome of a batch
+     */
+    public static class Summary {
+        private final AtomicLong designed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+
+        public long getDesigned() {
+            return designed.get();
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+
+        @Override
+        public String toString() {
+            return designed.get() + " designed, " + failed.get() + " failed";
+        }
+    }
+
+    /**
+     * Designs a protein FASTA file: BatchDesigner in.fasta out.fasta [Ecoli|Scerevisiae] [threads] [metrics.txt]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: BatchDesigner in.fasta out.fasta [Ecoli|Scerevisiae] [threads] [metrics.txt]");
+            return;
+        }
+        BatchDesigner batch = new BatchDesigner();
+        batch.initiate();
+        if (args.length > 2) {
+            batch.setHost(Host.valueOf(args[2]));
+        }
+        if (args.length > 3) {
+            batch.setThreads(Integer.parseInt(args[3]));
+        }
+
+        long start = System.nanoTime();
+        try (Reader in = new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8);
+             Writer out = new OutputStreamWriter(new FileOutputStream(args[1]), StandardCharsets.UTF_8)) {
+            Summary summary = batch.run(in, out);
+            System.out.printf("%s in %.1f s%n", summary, (System.nanoTime() - start) / 1e9);
+        }
+
+        //where the time went, in the Prometheus text format
+        if (args.length > 4) {
+            try (Writer metrics = new OutputStreamWriter(new FileOutputStream(args[4]), StandardCharsets.UTF_8)) {
+                MetricsRegistry.getDefault().writePrometheus(metrics);
+            }
+        }
+    }
+}
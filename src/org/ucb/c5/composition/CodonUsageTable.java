@@ -0,0 +1,192 @@
+package org.ucb.c5.composition;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import org.ucb.c5.composition.model.Host;
+import org.ucb.c5.utils.FileUtils;
+import org.ucb.c5.utils.TSVParser;
+
+/**
+ * Codon usage of each Host, compiled for weighted sampling
+ *
+ * Usage frequencies (per thousand codons) are read from
+ * composition/data/codon_usage_*.txt and compiled into primitive arrays: for
+ * each amino acid, its synonymous codons in AminoAcidToCodon order and a
+ * Walker/Vose alias table over their frequencies, so a codon is drawn in
+ * constant time with two random numbers.  Frequent codons are drawn more
+ * often, which steers sampled permutations away from rare codons.
+ */
+public class CodonUsageTable {
+
+    private AminoAcidToCodon aaToCodon;
+    private Map<Host, Usage> usages;
+
+    public void initiate() throws Exception {
+        AminoAcidToCodon aaToCodon = new AminoAcidToCodon();
+        aaToCodon.initiate();
+        initiate(aaToCodon);
+    }
+
+    /**
+     * Compiles the usage tables over an existing amino acid to codon table
+     *
+     * @param aaToCodon the synonymous codons of each amino acid
+     * @throws Exception
+     */
+    public synchronized void initiate(AminoAcidToCodon aaToCodon) throws Exception {
+        //the tables never change once compiled, so a shared table can't be swapped under its readers
+        if (usages != null) {
+            throw new IllegalStateException("CodonUsageTable is already initiated");
+        }
+        this.aaToCodon = aaToCodon;
+
+        Map<Host, Usage> usages = new EnumMap<>(Host.class);
+        usages.put(Host.Ecoli, load("composition/data/codon_usage_ecoli.txt"));
+        usages.put(Host.Scerevisiae, load("composition/data/codon_usage_scerevisiae.txt"));
+        this.usages = Collections.unmodifiableMap(usages);
+    }
+
+    /**
+     * @param host the organism the design is for
+     * @return the compiled codon usage of host
+     */
+    public Usage get(Host host) {
+        Usage usage = usages.get(host);
+        if (usage == null) {
+            throw new IllegalArgumentException("no codon usage for host: " + host);
+        }
+        return usage;
+    }
+
+    private Usage load(String path) throws Exception {
+        //Read the frequency of each codon
+        Map<String, Double> frequencies = new HashMap<>();
+        try (TSVParser.Cursor rows = new TSVParser().open(FileUtils.newResourceReader(path), false)) {
+            while (rows.next()) {
+                frequencies.put(rows.getString(0), rows.getDouble(2));
+            }
+        }
+
+        //Compile an alias table per amino acid, indexed by the amino acid letter
+        String[][] codons = new String[128][];
+        double[][] probs = new double[128][];
+        int[][] aliases = new int[128][];
+        for (char aa : aaToCodon.getAminoAcids()) {
+            String[] synonyms = aaToCodon.getCodons(aa).toArray(new String[0]);
+            double[] weights = new double[synonyms.length];
+            for (int i = 0; i < synonyms.length; i++) {
+                Double freq = frequencies.get(synonyms[i]);
+                if (freq == null) {
+                    throw new IllegalArgumentException("no usage for codon " + synonyms[i] + " in " + path);
+                }
+                weights[i] = freq;
+            }
+            codons[aa] = synonyms;
+            probs[aa] = new double[synonyms.length];
+            aliases[aa] = new int[synonyms.length];
+            buildAlias(weights, probs[aa], aliases[aa]);
+        }
+        return new Usage(codons, probs, aliases);
+    }
+
+    /**
+     * Builds an alias table with Vose's method
+     */
+    private static void buildAlias(double[] weights, double[] prob, int[] alias) {
+        int n = weights.length;
+        double total = 0;
+        for (double w : weights) {
+            total += w;
+        }
+
+        double[] scaled = new double[n];
+        Deque<Integer> small = new ArrayDeque<>();
+        Deque<Integer> large = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            scaled[i] = weights[i] * n / total;
+            if (scaled[i] < 1.0) {
+                small.push(i);
+            } else {
+                large.push(i);
+            }
+        }
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int less = small.pop();
+            int more = large.pop();
+            prob[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1.0;
+            if (scaled[more] < 1.0) {
+                small.push(more);
+            } else {
+                large.push(more);
+            }
+        }
+        //Whatever remains is 1 up to rounding
+        while (!large.isEmpty()) {
+            int i = large.pop();
+            prob[i] = 1.0;
+            alias[i] = i;
+        }
+        while (!small.isEmpty()) {
+            int i = small.pop();
+            prob[i] = 1.0;
+            alias[i] = i;
+        }
+    }
+
+    /**
+     * The compiled codon usage of one Host
+     */
+    public static class Usage {
+        private final String[][] codons;
+        private final double[][] probs;
+        private final int[][] aliases;
+
+        private Usage(String[][] codons, double[][] probs, int[][] aliases) {
+            this.codons = codons;
+            this.probs = probs;
+            this.aliases = aliases;
+        }
+
+        /**
+         * Draws a codon for an amino acid in proportion to its usage
+         *
+         * @param aa the amino acid, upper case
+         * @param rand the random stream to draw from
+         * @return the codon
+         */
+        public String sample(char aa, SplittableRandom rand) {
+            String[] synonyms = aa < 128 ? codons[aa] : null;
+            if (synonyms == null) {
+                throw new IllegalArgumentException("amino acid is not valid: " + aa);
+            }
+            int i = rand.nextInt(synonyms.length);
+            if (rand.nextDouble() >= probs[aa][i]) {
+                i = aliases[aa][i];
+            }
+            return synonyms[i];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CodonUsageTable table = new CodonUsageTable();
+        table.initiate();
+
+        SplittableRandom rand = new SplittableRandom(100);
+        for (Host host : Host.values()) {
+            Map<String, Integer> counts = new TreeMap<>();
+            for (int i = 0; i < 10000; i++) {
+                String codon = table.get(host).sample('R', rand);
+                counts.put(codon, counts.containsKey(codon) ? counts.get(codon) + 1 : 1);
+            }
+            System.out.println(host + " arginine: " + counts);
+        }
+    }
+}
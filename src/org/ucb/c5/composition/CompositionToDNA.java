@@ -9,6 +9,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import org.ucb.c5.composition.model.Composition;
+import org.ucb.c5.utils.MetricsRegistry;
 
 /**
  * Constructs an encoding DNA for a (co)cistronic operon described by a
@@ -20,12 +21,25 @@ public class CompositionToDNA {
 
     private TranscriptDesigner swo;
     
+    //Compositions compiled, recorded into the default registry
+    private static final MetricsRegistry.Histogram RUN_TIME = MetricsRegistry.getDefault().histogram(
+            "composition_to_dna_run_seconds", "Time to design the operon of a composition");
+    private static final MetricsRegistry.Counter PROTEINS = MetricsRegistry.getDefault().counter(
+            "composition_to_dna_proteins_total", "Proteins designed as part of a composition");
+    
     public void initiate() throws Exception {
+        initiate(DesignContext.getDefault());
+    }
+
+    public void initiate(DesignContext context) throws Exception {
         swo = new TranscriptDesigner();
-        swo.initiate();
+        swo.initiate(context);
     }
 
     public Construct run(Composition comp) throws Exception {
+        DesignEvents.CompositionDesign event = new DesignEvents.CompositionDesign();
+        event.begin();
+        long start = System.nanoTime();
         List<String> proteins = comp.getProteins();
         Host organism = comp.getHost();
         
@@ -33,13 +47,25 @@ public class CompositionToDNA {
         List<Transcript> mRNAs = new ArrayList<>();
         Set<RBSOption> ignores = new HashSet<>();
         for (String peptide : proteins) {
-            Transcript mrna = swo.run(peptide, ignores);
+            Transcript mrna = swo.run(peptide, ignores, organism);
             ignores.add(mrna.getRbs()); //Add this rbs to excludes so it is not repeated
             mRNAs.add(mrna);
+            PROTEINS.inc();
         }
 
         //Construct the output dna
         Construct out = new Construct(mRNAs, comp.getPromoter(), comp.getTerminator());
+        RUN_TIME.record(System.nanoTime() - start);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.host = String.valueOf(organism);
+            event.proteins = proteins.size();
+            for (String peptide : proteins) {
+                event.peptideLength += peptide.length();
+            }
+            event.commit();
+        }
         return out;
     }
 
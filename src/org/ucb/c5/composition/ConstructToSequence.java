@@ -1,69 +1,323 @@
 package org.ucb.c5.composition;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import org.ucb.c5.composition.model.Construct;
 import org.ucb.c5.composition.model.Transcript;
+import org.ucb.c5.utils.FastaWriter;
 
 /**
  * Compiles a Construct to a DNA sequence, adding PCR spacers
  * between each rbs.CDS
- * 
+ *
+ * The construct is laid out as a list of parts whose sequences are views of
+ * the promoter, spacers, RBSs, codons and terminator it is made of, so their
+ * coordinates are known before any bases are copied.  The writers stream the
+ * parts straight to their output as FASTA or annotated GenBank, so a large
+ * construct never exists as one String.
+ *
  * @author J. Christopher Anderson
  */
 public class ConstructToSequence {
     private final PCRSpacers spacers;
-    
+
+    //bases per line and per block in a GenBank ORIGIN section
+    private static final int GENBANK_LINE = 60;
+    private static final int GENBANK_BLOCK = 10;
+    //GenBank qualifiers start in this column and wrap before this one
+    private static final int QUALIFIER_INDENT = 21;
+    private static final int QUALIFIER_WIDTH = 79;
+
     public ConstructToSequence() {
         spacers = new PCRSpacers();
     }
-    
+
     public void initiate() throws Exception { }
-    
+
     public String run(Construct construct, boolean includeSpacers) throws Exception {
         StringBuilder out = new StringBuilder();
-        
+        for (Part part : layout(construct, includeSpacers)) {
+            out.append(part.seq);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Lists the parts of the compiled sequence and where they are
+     *
+     * @param construct the construct to compile
+     * @param includeSpacers true to include the PCR spacers
+     * @return the parts in order, with 1-based inclusive coordinates
+     * @throws Exception
+     */
+    public List<Feature> features(Construct construct, boolean includeSpacers) throws Exception {
+        List<Feature> out = new ArrayList<>();
+        int position = 1;
+        for (Part part : layout(construct, includeSpacers)) {
+            out.add(new Feature(part.type, part.label, position, position + part.seq.length() - 1));
+            position += part.seq.length();
+        }
+        return out;
+    }
+
+    /**
+     * Writes the compiled sequence as one FASTA record, with the RBSs in
+     * lowercase as run() returns it
+     *
+     * @param construct the construct to compile
+     * @param includeSpacers true to include the PCR spacers
+     * @param name the name of the record
+     * @param out where the record is written; flushed but not closed
+     * @throws Exception
+     */
+    public void writeFasta(Construct construct, boolean includeSpacers, String name, Writer out) throws Exception {
+        FastaWriter fasta = new FastaWriter(out);
+        fasta.begin(name, null);
+        for (Part part : layout(construct, includeSpacers)) {
+            fasta.append(part.seq);
+        }
+        fasta.end();
+        fasta.flush();
+    }
+
+    public void writeFasta(Construct construct, boolean includeSpacers, String name, WritableByteChannel out)
+            throws Exception {
+        writeFasta(construct, includeSpacers, name, Channels.newWriter(out, StandardCharsets.UTF_8.newEncoder(), -1));
+    }
+
+    /**
+     * Writes the compiled sequence as a GenBank record, with a feature for
+     * the promoter, every spacer, RBS and CDS, and the terminator
+     *
+     * @param construct the construct to compile
+     * @param includeSpacers true to include the PCR spacers
+     * @param name the name of the record, up to 16 characters without spaces
+     * @param out where the record is written; flushed but not closed
+     * @throws Exception
+     */
+    public void writeGenBank(Construct construct, boolean includeSpacers, String name, Writer out) throws Exception {
+        List<Part> parts = layout(construct, includeSpacers);
+        long length = 0;
+        for (Part part : parts) {
+            length += part.seq.length();
+        }
+
+        String locus = name.replaceAll("\\s", "_");
+        String date = LocalDate.now().format(DateTimeFormatter.ofPattern("dd-MMM-yyyy", Locale.US)).toUpperCase();
+        out.write(String.format("LOCUS       %-16s %11d bp    DNA     linear   SYN %s\n", locus, length, date));
+        out.write("DEFINITION  " + name + "\n");
+        out.write("FEATURES             Location/Qualifiers\n");
+
+        //Coordinates follow from the part lengths, before any bases are written
+        long position = 1;
+        for (Part part : parts) {
+            long end = position + part.seq.length() - 1;
+            out.write(String.format("     %-15s %d..%d\n", part.type, position, end));
+            writeQualifier(out, "label", part.label);
+            if (part.translation != null) {
+                writeQualifier(out, "translation", part.translation);
+            }
+            position = end + 1;
+        }
+
+        //Stream the bases in lowercase blocks of 10, 60 to a line
+        out.write("ORIGIN\n");
+        long written = 0;
+        for (Part part : parts) {
+            CharSequence seq = part.seq;
+            for (int i = 0; i < seq.length(); i++) {
+                if (written % GENBANK_LINE == 0) {
+                    if (written > 0) {
+                        out.write('\n');
+                    }
+                    out.write(String.format("%9d", written + 1));
+                }
+                if (written % GENBANK_BLOCK == 0) {
+                    out.write(' ');
+                }
+                out.write(Character.toLowerCase(seq.charAt(i)));
+                written++;
+            }
+        }
+        if (written > 0) {
+            out.write('\n');
+        }
+        out.write("//\n");
+        out.flush();
+    }
+
+    public void writeGenBank(Construct construct, boolean includeSpacers, String name, WritableByteChannel out)
+            throws Exception {
+        writeGenBank(construct, includeSpacers, name, Channels.newWriter(out, StandardCharsets.UTF_8.newEncoder(), -1));
+    }
+
+    /**
+     * Writes a qualifier, wrapping its value across lines
+     */
+    private static void writeQualifier(Writer out, String key, String value) throws IOException {
+        String text = "/" + key + "=\"" + value + "\"";
+        int width = QUALIFIER_WIDTH - QUALIFIER_INDENT;
+        for (int i = 0; i < text.length(); i += width) {
+            for (int s = 0; s < QUALIFIER_INDENT; s++) {
+                out.write(' ');
+            }
+            out.write(text, i, Math.min(width, text.length() - i));
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Lays out the construct as its parts in order
+     */
+    private List<Part> layout(Construct construct, boolean includeSpacers) throws Exception {
+        List<Part> out = new ArrayList<>();
+
         //Put in spacer-promoter-spacer
         if(includeSpacers)
-            out.append(spacers.getPromoter5Prime());
-        out.append(construct.getPromoter());
+            out.add(new Part("misc_feature", "spacer 5' of promoter", spacers.getPromoter5Prime(), null));
+        out.add(new Part("promoter", "promoter", construct.getPromoter(), null));
         if(includeSpacers)
-            out.append(spacers.getPromoter3Prime());
-        
+            out.add(new Part("misc_feature", "spacer 3' of promoter", spacers.getPromoter3Prime(), null));
+
         //Put in each spacer
         List<Transcript> mrnas = construct.getmRNAs();
         for(int i=0; i<mrnas.size(); i++) {
             Transcript mrna = mrnas.get(i);
-            out.append(TranscriptToSequence(mrna));
+            String rbsName = mrna.getRbs().getName();
+
+            //To visually distinguish, make the RBS lowercase and the CDS uppercase
+            out.add(new Part("RBS", rbsName + " RBS", mrna.getRbs().getRbs().toLowerCase(), null));
+            out.add(new Part("CDS", "gene " + (i + 1), new CodingSequence(mrna.getCodons()), mrna.getPeptide()));
             if(includeSpacers)
-                out.append(spacers.getGene3Prime(i));
+                out.add(new Part("misc_feature", "spacer 3' of gene " + (i + 1), spacers.getGene3Prime(i), null));
         }
-        
+
         //Put in the remaining spacers
         if(includeSpacers) {
             for(int i=mrnas.size(); i<spacers.size() - 3; i++) {
-                out.append(spacers.getGene3Prime(i));
+                out.add(new Part("misc_feature", "unused spacer " + (i + 3), spacers.getGene3Prime(i), null));
             }
         }
-        
+
         //Put in the terminator and the final spacer
-        out.append(construct.getTerminator());
+        out.add(new Part("terminator", "terminator", construct.getTerminator(), null));
         if(includeSpacers)
-            out.append(spacers.getTerminator3Prime());
-        
-        return out.toString();
+            out.add(new Part("misc_feature", "spacer 3' of terminator", spacers.getTerminator3Prime(), null));
+
+        return out;
     }
-    
-    private String TranscriptToSequence(Transcript mrna)  throws Exception {
-        //Construct the mRNA sequence one codon at a time
-        StringBuilder out = new StringBuilder();
-        for(int i=0; i<mrna.getPeptide().length(); i++) {
-            out.append(mrna.getCodons()[i]);
-        }
-        
-        //Add a stop codon to the coding sequence
-        out.append("TAA");
-            
-        //To visually distinguish, make the RBS lowercase and the CDS uppercase
-        return mrna.getRbs().getRbs().toLowerCase() + out.toString().toUpperCase();
+
+    /**
+     * A located, labelled part of a compiled construct
+     */
+    public static class Feature {
+        private final String type;
+        private final String label;
+        private final int start;
+        private final int end;
+
+        public Feature(String type, String label, int start, int end) {
+            this.type = type;
+            this.label = label;
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the GenBank feature key, ie promoter, RBS or CDS
+         */
+        public String getType() {
+            return type;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return the position of the first base, counting from 1
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * @return the position of the last base, inclusive
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + start + ".." + end + " " + label;
+        }
+    }
+
+    private static class Part {
+        private final String type;
+        private final String label;
+        private final CharSequence seq;
+        private final String translation;
+
+        Part(String type, String label, CharSequence seq, String translation) {
+            this.type = type;
+            this.label = label;
+            this.seq = seq;
+            this.translation = translation;
+        }
+    }
+
+    /**
+     * The codons of a transcript followed by a stop codon, in uppercase,
+     * read straight from the codon array
+     */
+    private static class CodingSequence implements CharSequence {
+        private static final String STOP = "TAA";
+        private final String[] codons;
+
+        CodingSequence(String[] codons) {
+            this.codons = codons;
+        }
+
+        @Override
+        public int length() {
+            return 3 * codons.length + STOP.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException("index " + index + " of " + length());
+            }
+            int codon = index / 3;
+            char c = codon < codons.length ? codons[codon].charAt(index % 3) : STOP.charAt(index % 3);
+            return Character.toUpperCase(c);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("range " + start + "-" + end + " of " + length());
+            }
+            StringBuilder out = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                out.append(charAt(i));
+            }
+            return out.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
     }
 }
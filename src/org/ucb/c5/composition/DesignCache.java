@@ -0,0 +1,272 @@
+package org.ucb.c5.composition;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.ucb.c5.composition.model.Host;
+import org.ucb.c5.composition.model.RBSOption;
+import org.ucb.c5.composition.model.Transcript;
+
+/**
+ * Cache of designed transcripts, keyed by a hash of everything that decides
+ * the design
+ *
+ * A TranscriptDesigner always makes the same transcript for the same peptide,
+ * host, chooser settings and excluded RBSs, so a design can be looked up
+ * instead of recomputed.  The most recently used designs are kept in memory
+ * up to a fixed number; older ones are evicted.  If a directory is given,
+ * every design is also written there, one small file per key holding the RBS
+ * name and codons, so designs survive restarts.  Designs read back from disk
+ * are resolved against the current RBS library.
+ *
+ * Keys include a fingerprint of the RBS library and ALGORITHM_VERSION, so a
+ * design made against another library, or by an earlier version of the
+ * choosers, is never found again.  ALGORITHM_VERSION has to be raised
+ * whenever a change to the choosers or their data changes which design they
+ * make for the same inputs.
+ *
+ * The cache is safe to share between threads.
+ */
+public class DesignCache {
+
+    /**
+     * Identifies how designs are made and stored; raising it retires every
+     * design cached before
+     */
+    public static final int ALGORITHM_VERSION = 2;
+
+    private final int capacity;
+    private final Path directory;
+    private final Map<String, Transcript> memory;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong disk_hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity the number of designs kept in memory
+     */
+    public DesignCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity the number of designs kept in memory
+     * @param directory where designs are persisted, or null to keep them in memory only
+     */
+    public DesignCache(int capacity, Path directory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.directory = directory;
+        this.memory = new LinkedHashMap<String, Transcript>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Transcript> eldest) {
+                return size() > DesignCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Computes the key a design is stored under
+     *
+     * @param peptide the protein sequence
+     * @param host the organism the design is for, or null
+     * @param parameters the settings of the SequenceChooser
+     * @param library the fingerprint of the RBS library, from RBSLibrary.getFingerprint
+     * @param ignores RBSs that may not be chosen
+     * @return a hex SHA-256 digest of the inputs
+     * @throws Exception
+     */
+    public static String key(String peptide, Host host, String parameters, String library, Set<RBSOption> ignores)
+            throws Exception {
+        List<String> ignored = new ArrayList<>();
+        for (RBSOption rbs : ignores) {
+            ignored.add(rbs.getName());
+        }
+        Collections.sort(ignored);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(ALGORITHM_VERSION).append('\0');
+        sb.append(library).append('\0');
+        sb.append(peptide).append('\0');
+        sb.append(host).append('\0');
+        sb.append(parameters).append('\0');
+        for (String name : ignored) {
+            sb.append(name).append('\0');
+        }
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        return HexFormat.of().formatHex(digest.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Looks up a design, in memory and then on disk
+     *
+     * @param key the key from key()
+     * @param peptide the protein sequence the design encodes
+     * @param rbsChooser the library RBS names on disk are resolved against
+     * @return the design, or null if it is not cached
+     * @throws Exception
+     */
+    public Transcript get(String key, String peptide, RBSChooser rbsChooser) throws Exception {
+        Transcript found;
+        synchronized (memory) {
+            found = memory.get(key);
+        }
+        if (found != null) {
+            hits.incrementAndGet();
+            return copy(found);
+        }
+
+        found = readDisk(key, peptide, rbsChooser);
+        if (found != null) {
+            disk_hits.incrementAndGet();
+            synchronized (memory) {
+                memory.put(key, found);
+            }
+            return copy(found);
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a design in memory and, if there is a directory, on disk
+     *
+     * @param key the key from key()
+     * @param design the transcript designed for the key
+     * @throws Exception
+     */
+    public void put(String key, Transcript design) throws Exception {
+        design = copy(design);
+        synchronized (memory) {
+            memory.put(key, design);
+        }
+        writeDisk(key, design);
+    }
+
+    /**
+     * @return lookups answered from memory
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return lookups answered from disk
+     */
+    public long getDiskHits() {
+        return disk_hits.get();
+    }
+
+    /**
+     * @return lookups that found nothing
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of designs in memory
+     */
+    public int size() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    /**
+     * Drops every design held in memory; designs on disk are kept
+     */
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+        }
+    }
+
+    private Transcript readDisk(String key, String peptide, RBSChooser rbsChooser) throws IOException {
+        if (directory == null) {
+            return null;
+        }
+        Path file = directory.resolve(key + ".txt");
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        //the first line is the RBS name, the second the codons run together
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.size() < 2 || lines.get(1).length() != 3 * peptide.length()) {
+            return null;
+        }
+        RBSOption rbs = rbsChooser.getOption(lines.get(0));
+        if (rbs == null) {
+            return null;
+        }
+        String cds = lines.get(1);
+        String[] codons = new String[peptide.length()];
+        for (int i = 0; i < codons.length; i++) {
+            codons[i] = cds.substring(3 * i, 3 * i + 3);
+        }
+        return new Transcript(rbs, peptide, codons);
+    }
+
+    private void writeDisk(String key, Transcript design) throws IOException {
+        if (directory == null) {
+            return;
+        }
+        Files.createDirectories(directory);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(design.getRbs().getName()).append("\n");
+        for (String codon : design.getCodons()) {
+            sb.append(codon);
+        }
+        sb.append("\n");
+
+        //write to a temporary file first so a reader never sees half a design
+        Path tmp = Files.createTempFile(directory, key, ".tmp");
+        Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, directory.resolve(key + ".txt"), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Transcripts expose their codon array, so callers get their own copy
+     */
+    private static Transcript copy(Transcript design) {
+        return new Transcript(design.getRbs(), design.getPeptide(), design.getCodons().clone());
+    }
+
+    public static void main(String[] args) throws Exception {
+        TranscriptDesigner td = new TranscriptDesigner();
+        td.initiate();
+        DesignCache cache = new DesignCache(64, Paths.get(System.getProperty("java.io.tmpdir"), "c5_designs"));
+        td.setCache(cache);
+
+        Set<RBSOption> ignores = new HashSet<>();
+        String peptide = "MKKLLPTAAAGLLLLAAQPAMAMDIGINSDPNSSSVDKLAAALEHHHHHH";
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            td.run(peptide, ignores, Host.Ecoli);
+            System.out.printf("run %d: %.1f ms%n", i, (System.nanoTime() - start) / 1e6);
+        }
+        System.out.println("hits " + cache.getHits() + ", disk hits " + cache.getDiskHits()
+                + ", misses " + cache.getMisses());
+    }
+}
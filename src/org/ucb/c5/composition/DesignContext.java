@@ -0,0 +1,122 @@
+package org.ucb.c5.composition;
+
+import java.nio.file.Path;
+
+/**
+ * The data every design component works from, loaded once
+ *
+ * Holds the amino acid to codon table, the codon usage of each Host, the
+ * compiled forbidden sites and the indexed RBS library.  None of them change
+ * after loading, so a context can be shared by any number of components on
+ * any number of threads.  The components' initiate() methods all use the
+ * default context, so a JVM reads the data files only once however many
+ * designers it creates; initiate(DesignContext) uses another one instead.
+ *
+ * The RBS library is loaded on the first call to getRBSLibrary(), so only
+ * the components that choose an RBS need the gene table it is built from.
+ */
+public final class DesignContext {
+
+    private static DesignContext shared;
+
+    private final AminoAcidToCodon aminoAcidToCodon;
+    private final CodonUsageTable codonUsage;
+    private final SequenceChecker sequenceChecker;
+
+    //where a lazily loaded library is read from; null for the bundled data files
+    private final Path rbsSnapshot;
+    private RBSLibrary rbsLibrary;
+
+    /**
+     * Builds a context from data that has already been loaded
+     *
+     * @param aminoAcidToCodon the synonymous codons of each amino acid
+     * @param codonUsage the codon usage of each Host
+     * @param sequenceChecker the checker of forbidden sites
+     * @param rbsLibrary the RBS options to choose from
+     */
+    public DesignContext(AminoAcidToCodon aminoAcidToCodon, CodonUsageTable codonUsage,
+                         SequenceChecker sequenceChecker, RBSLibrary rbsLibrary) {
+        if (rbsLibrary == null) {
+            throw new IllegalArgumentException("rbsLibrary is null");
+        }
+        this.aminoAcidToCodon = aminoAcidToCodon;
+        this.codonUsage = codonUsage;
+        this.sequenceChecker = sequenceChecker;
+        this.rbsSnapshot = null;
+        this.rbsLibrary = rbsLibrary;
+    }
+
+    private DesignContext(AminoAcidToCodon aminoAcidToCodon, CodonUsageTable codonUsage,
+                          SequenceChecker sequenceChecker, Path rbsSnapshot) {
+        this.aminoAcidToCodon = aminoAcidToCodon;
+        this.codonUsage = codonUsage;
+        this.sequenceChecker = sequenceChecker;
+        this.rbsSnapshot = rbsSnapshot;
+    }
+
+    /**
+     * Loads a new context from the data files
+     *
+     * @return the loaded context
+     * @throws Exception
+     */
+    public static DesignContext load() throws Exception {
+        return load((Path) null);
+    }
+
+    /**
+     * Loads a new context whose RBS library is read from a snapshot file,
+     * which is written on first use
+     *
+     * @param rbsSnapshot the RBS library snapshot
+     * @return the loaded context
+     * @throws Exception
+     */
+    public static DesignContext load(Path rbsSnapshot) throws Exception {
+        AminoAcidToCodon aminoAcidToCodon = new AminoAcidToCodon();
+        aminoAcidToCodon.initiate();
+
+        CodonUsageTable codonUsage = new CodonUsageTable();
+        codonUsage.initiate(aminoAcidToCodon);
+
+        SequenceChecker sequenceChecker = new SequenceChecker();
+        sequenceChecker.initiate();
+
+        return new DesignContext(aminoAcidToCodon, codonUsage, sequenceChecker, rbsSnapshot);
+    }
+
+    /**
+     * @return the context shared by the whole JVM, loaded on first use
+     * @throws Exception
+     */
+    public static synchronized DesignContext getDefault() throws Exception {
+        if (shared == null) {
+            shared = load();
+        }
+        return shared;
+    }
+
+    public AminoAcidToCodon getAminoAcidToCodon() {
+        return aminoAcidToCodon;
+    }
+
+    public CodonUsageTable getCodonUsage() {
+        return codonUsage;
+    }
+
+    public SequenceChecker getSequenceChecker() {
+        return sequenceChecker;
+    }
+
+    /**
+     * @return the RBS library, loaded on first use
+     * @throws Exception if the library can't be loaded
+     */
+    public synchronized RBSLibrary getRBSLibrary() throws Exception {
+        if (rbsLibrary == null) {
+            rbsLibrary = rbsSnapshot == null ? RBSLibrary.load() : RBSLibrary.load(rbsSnapshot);
+        }
+        return rbsLibrary;
+    }
+}
@@ -0,0 +1,118 @@
+package org.ucb.c5.composition;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Java Flight Recorder events for the stages of a design
+ *
+ * Each stage times itself with one of these events and fills in its fields
+ * only if the recording wants the event, so with the events disabled a stage
+ * costs no more than before.  Recordings are enabled as usual, ie
+ *
+ *   java -XX:StartFlightRecording:filename=design.jfr ...
+ *
+ * and the events appear under Gene Design next to the JVM's own GC and CPU
+ * events, so a slow design can be lined up with what the JVM was doing.
+ * They are enabled by default, with no threshold; a settings file can raise
+ * the threshold of a busy one such as org.ucb.c5.SequenceWindow.
+ */
+final class DesignEvents {
+
+    private DesignEvents() { }
+
+    @Name("org.ucb.c5.CompositionToDNA")
+    @Label("Composition Design")
+    @Category("Gene Design")
+    @Description("Design of the operon of a composition by CompositionToDNA.run")
+    static class CompositionDesign extends Event {
+        @Label("Host")
+        String host;
+
+        @Label("Proteins")
+        int proteins;
+
+        @Label("Peptide Length")
+        @Description("Amino acids of all the proteins together")
+        int peptideLength;
+    }
+
+    @Name("org.ucb.c5.TranscriptDesigner")
+    @Label("Transcript Design")
+    @Category("Gene Design")
+    @Description("Design of a transcript by TranscriptDesigner.run")
+    static class TranscriptDesign extends Event {
+        @Label("Host")
+        String host;
+
+        @Label("Peptide Length")
+        int peptideLength;
+
+        @Label("Excluded RBSs")
+        int ignored;
+
+        @Label("Cached")
+        @Description("The design was found in the design cache")
+        boolean cached;
+
+        @Label("RBS")
+        @Description("Name of the chosen RBS")
+        String rbs;
+    }
+
+    @Name("org.ucb.c5.SequenceWindow")
+    @Label("Sequence Window")
+    @Category("Gene Design")
+    @Description("Choice of the codons of one window by the sampling engine of SequenceChooser")
+    static class SequenceWindow extends Event {
+        @Label("Peptide Length")
+        int peptideLength;
+
+        @Label("Window Index")
+        int windowIndex;
+
+        @Label("Window Length")
+        @Description("Amino acids in the window, including those downstream of its target")
+        int windowLength;
+
+        @Label("Memo Hit")
+        @Description("The codons were taken from the window memo")
+        boolean memoHit;
+
+        @Label("Candidates Tried")
+        int candidatesTried;
+
+        @Label("Candidates Accepted")
+        int candidatesAccepted;
+
+        @Label("Fallback")
+        @Description("Permutations failing the GC check were kept after 1000 tries")
+        boolean fallback;
+    }
+
+    @Name("org.ucb.c5.RBSChooser")
+    @Label("RBS Choice")
+    @Category("Gene Design")
+    @Description("Choice of an RBS by RBSChooser.run")
+    static class RBSChoice extends Event {
+        @Label("Peptide Length")
+        int peptideLength;
+
+        @Label("Options Scored")
+        int optionsScored;
+
+        @Label("Options Pruned")
+        @Description("Options the search never reached")
+        int optionsPruned;
+
+        @Label("RBS")
+        @Description("Name of the chosen RBS")
+        String rbs;
+
+        @Label("Score")
+        double score;
+    }
+}
@@ -1,16 +1,11 @@
 package org.ucb.c5.composition;
 
-import java.util.HashSet;
 import java.util.Set;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.ArrayList;
+import java.util.List;
 import org.ucb.c5.composition.model.RBSOption;
-import org.ucb.c5.utils.FileUtils;
-import org.ucb.c5.sequtils.CalcEditDistance;
+import org.ucb.c5.sequtils.BKTree;
 import org.ucb.c5.sequtils.HairpinCounter;
-import org.ucb.c5.sequtils.RevComp;
-import org.ucb.c5.sequtils.Translate;
+import org.ucb.c5.utils.MetricsRegistry;
 
 /**
  * Second generation RBSChooser algorithm
@@ -18,76 +13,50 @@ import org.ucb.c5.sequtils.Translate;
  * Employs a list of genes and their associated ribosome binding sites for
  * highly-expressed proteins in E. coli.
  *
+ * Options are indexed in a BK-tree by their first six amino acids, so each
+ * search visits options in order of edit distance and stops as soon as no
+ * remaining option could beat the best score found.
+ *
+ * Hairpins of RBS+CDS are split into those inside the RBS (scored once per
+ * option by the RBSLibrary), those inside the CDS (scored once per call) and
+ * those spanning the junction, so each option only costs a few dozen bases.
+ *
+ * The chooser keeps no state between calls, so one instance can be shared by
+ * every thread.
+ *
  * @author J. Christopher Anderson
  */
 public class RBSChooser {
 
-    private ArrayList<RBSOption> rbss;
-    private CalcEditDistance six_aa_scorer;
+    private RBSLibrary library;
     private HairpinCounter second_struct_scorer;
-    private Translate translator;
-    private RevComp reverse;
-    private AminoAcidToCodon translate;
+
+    //how much of the library each search gets through, recorded into the default registry
+    private static final MetricsRegistry.Histogram RUN_TIME = MetricsRegistry.getDefault().histogram(
+            "rbs_chooser_run_seconds", "Time to choose the RBS of a transcript");
+    private static final MetricsRegistry.Counter OPTIONS_SCORED = MetricsRegistry.getDefault().counter(
+            "rbs_chooser_options_scored_total", "RBS options scored against a CDS");
+    private static final MetricsRegistry.Counter OPTIONS_PRUNED = MetricsRegistry.getDefault().counter(
+            "rbs_chooser_options_pruned_total", "RBS options the search never reached");
+    //the hairpin counter records nothing itself, so its work is counted here once per search
+    private static final MetricsRegistry.Counter HAIRPIN_BASES = MetricsRegistry.getDefault().counter(
+            "hairpin_counter_bases_total", "Bases scored for hairpins");
 
     public void initiate() throws Exception {
-        six_aa_scorer = new CalcEditDistance();
-        second_struct_scorer = new HairpinCounter();
-        translator = new Translate();
-        reverse = new RevComp();
-        translate = new AminoAcidToCodon();
+        initiate(DesignContext.getDefault());
+    }
 
-        translate.initiate();
-        six_aa_scorer.initiate();
+    /**
+     * Initiates the chooser on the RBS library of a design context, which is
+     * shared rather than read again
+     *
+     * @param context the loaded design data
+     * @throws Exception
+     */
+    public void initiate(DesignContext context) throws Exception {
+        library = context.getRBSLibrary();
+        second_struct_scorer = new HairpinCounter();
         second_struct_scorer.initiate();
-        translator.initiate();
-        reverse.initiate();
-
-
-        rbss = new ArrayList<>();
-
-
-        //Read the data file
-        String gene_data = FileUtils.readResourceFile("composition/data/coli_genes.txt");
-        String rbs_data = FileUtils.readResourceFile("composition/data/rbs_options.txt");
-
-        //split data into array of lines
-        String[] gene_lines = gene_data.split("\\r|\\r?\\n");
-        String[] rbs_lines = rbs_data.split("\\r|\\r?\\n");
-
-        //parse data for match between rbs options native genes and ecoli genes list,
-        //create rbsoption to add to rbss
-        Map<String,String> rbs_info = new HashMap<>();
-        for (int i = 0; i < rbs_lines.length; i++) {
-            String rbs_line = rbs_lines[i];
-            String[] rbs_fields = rbs_line.split("\t");
-
-            String src_rbs = rbs_fields[1];
-            String src_name = rbs_fields[0];
-            rbs_info.put(src_name,src_rbs);
-
-        }
-
-        for (int j = 0; j < gene_lines.length; j++) {
-            String gene_line = gene_lines[j];
-            String[] gene_fields = gene_line.split("\t");
-
-            String name = gene_fields[1];
-
-            if (rbs_info.containsKey(name)) {
-                String src_desc = gene_fields[0];
-                String src_rbs = rbs_info.get(name);
-                String src_cds = gene_fields[6];
-
-                //translate first 6 aa's from cds
-                String src_first6aas = translator.run(src_cds.substring(0, 18).toUpperCase());
-
-                //add rbsoption to rbss (list of rbs option and corresponding native gene cds)
-                RBSOption rbs_match = new RBSOption(name, src_desc, src_rbs, src_cds, src_first6aas);
-                rbss.add(rbs_match);
-            }
-        }
-
-
     }
 
 
@@ -103,29 +72,58 @@ public class RBSChooser {
      * @throws Exception
      */
     public RBSOption run(String cds, String peptide, Set<RBSOption> ignores) throws Exception {
+        DesignEvents.RBSChoice event = new DesignEvents.RBSChoice();
+        event.begin();
+        long start = System.nanoTime();
+        int visited = 0; //options taken from the tree, whether ignored or scored
+        int scored = 0;
+
         double min_score = Integer.MAX_VALUE; //keeps track of lowest score in rbs options
-        RBSOption best_rbs = rbss.get(0); //rbsoption corresponding to lowest score, initialized to first rbs in list
+        RBSOption best_rbs = library.get(0); //rbsoption corresponding to lowest score, initialized to first rbs in list
+        int best_index = Integer.MAX_VALUE; //position in the library of best_rbs, earlier options win ties
 
         int aa_score;
         double second_struct_score;
         double total_score;
 
-        // iterate and score through rbsoption list to find best rbs
-        for (RBSOption rbs_option : rbss) {
-            if (!ignores.contains(rbs_option)) {
-                //score the similarity between first 6 aas
-                String rbs_6_aas = rbs_option.getFirst6aas();
-                String pep_6_aas = peptide.substring(0, 6);
-                aa_score = six_aa_scorer.run(rbs_6_aas, pep_6_aas);
+        // visit rbs options in order of the edit distance of their first 6 aas
+        String pep_6_aas = peptide.substring(0, 6);
 
-                //score the secondary structure formation between rbs and cds (only hairpins)
-                //String cds = rev_translate(cds);
-                String combined_seq = rbs_option.getRbs() + cds;
-                second_struct_score = second_struct_scorer.run(combined_seq);
+        // hairpins inside the cds are the same for every option; score them once
+        String cds_head = cds.substring(0, Math.min(cds.length(), HairpinCounter.MAX_HAIRPIN_LENGTH));
+        double cds_hairpin = second_struct_scorer.run(cds);
+        double cds_head_hairpin = second_struct_scorer.run(cds_head);
+
+        BKTree<Integer>.Search search = library.search(pep_6_aas);
+        while (true) {
+            // the hairpin score is never negative, so no option further away can score below its distance
+            int next_distance = search.lowerBound();
+            if (next_distance == Integer.MAX_VALUE || lowestScore(next_distance) > min_score) {
+                break;
+            }
+            List<Integer> level = search.nextLevel();
+            aa_score = search.level();
+
+            for (int index : level) {
+                RBSOption rbs_option = library.get(index);
+                visited++;
+                if (ignores.contains(rbs_option)) {
+                    continue;
+                }
+                scored++;
+
+                //score the secondary structure formation between rbs and cds (only hairpins):
+                //those within the rbs, within the cds, and those starting in the rbs and ending in the cds,
+                //which appending the cds head to the rbs tail adds beyond the hairpins of the cds head itself
+                String rbs_tail = library.getTail(index);
+                String junction = rbs_tail + cds_head;
+                double junction_hairpin = second_struct_scorer.appendDelta(junction, rbs_tail.length())
+                        - cds_head_hairpin;
+                second_struct_score = library.getHairpin(index) + cds_hairpin + junction_hairpin;
 
                 //define hairpin as #hbonds per nuc, this will acct for diff cds+rbs lengths,
                 //and make score similar to aa score (<10)
-                second_struct_score = second_struct_score / combined_seq.length();
+                second_struct_score = second_struct_score / (rbs_option.getRbs().length() + cds.length());
 
                 total_score = (aa_score) + (second_struct_score);
                 // account for a perfect initial 6 aa match possibly by lowering total score by 1?
@@ -134,16 +132,56 @@ public class RBSChooser {
                     total_score -= 1;
                 }
 
-                if (total_score < min_score) {
+                if (total_score < min_score || (total_score == min_score && index < best_index)) {
                     min_score = total_score;
                     best_rbs = rbs_option;
+                    best_index = index;
                 }
-
             }
         }
+
+        OPTIONS_SCORED.add(scored);
+        OPTIONS_PRUNED.add(library.size() - visited);
+        //the cds and its head once, then the head again as appended to each scored option's tail
+        HAIRPIN_BASES.add(cds.length() + (long) cds_head.length() * (1 + scored));
+        RUN_TIME.record(System.nanoTime() - start);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.peptideLength = peptide.length();
+            event.optionsScored = scored;
+            event.optionsPruned = library.size() - visited;
+            event.rbs = best_rbs.getName();
+            event.score = min_score;
+            event.commit();
+        }
         return best_rbs;
     }
 
+    /**
+     * Looks up an option of the library by name
+     *
+     * @param name the gene name of the option
+     * @return the option, or null if there is none of that name
+     */
+    public RBSOption getOption(String name) {
+        return library.getOption(name);
+    }
+
+    /**
+     * @return the fingerprint of the library options are chosen from
+     */
+    public String getLibraryFingerprint() {
+        return library.getFingerprint();
+    }
+
+    /**
+     * @return the lowest total score an option whose first 6 aas are at this edit distance could get
+     */
+    private static double lowestScore(int aa_score) {
+        return aa_score == 0 ? -1 : aa_score;
+    }
+
 
     public static void main(String[] args) throws Exception {
         //Create an example
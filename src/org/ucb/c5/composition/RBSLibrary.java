@@ -0,0 +1,501 @@
+package org.ucb.c5.composition;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import org.ucb.c5.C5;
+import org.ucb.c5.composition.model.RBSOption;
+import org.ucb.c5.sequtils.BKTree;
+import org.ucb.c5.sequtils.CalcEditDistance;
+import org.ucb.c5.sequtils.HairpinCounter;
+import org.ucb.c5.sequtils.Translate;
+import org.ucb.c5.utils.FileUtils;
+import org.ucb.c5.utils.TSVParser;
+
+/**
+ * The ribosome binding sites RBSChooser picks from, with everything about
+ * them that does not depend on the protein being designed
+ *
+ * Each option pairs an RBS with the CDS of the E. coli gene it natively
+ * drives.  Options are indexed in a BK-tree by the first six amino acids of
+ * that CDS, and the hairpin score of each RBS and the bases at its 3' end
+ * that a hairpin across the RBS/CDS junction can start in are computed once.
+ *
+ * A library can be saved as a binary snapshot holding the resolved options
+ * and their hairpin scores.  Reading a snapshot memory-maps it and skips
+ * parsing the gene table, joining it with the RBSs, translating every CDS
+ * and scoring every hairpin, so startup only depends on the number of
+ * options, not on the size of the gene table.  A snapshot records the size
+ * and modification time of the text data files it was built from, and is
+ * only used while they still match; once either file changes the library is
+ * built from the text again.
+ *
+ * load() uses the snapshot composition/data/rbs_library.bin if one is
+ * bundled (main writes it), and otherwise one in the temporary directory,
+ * which the first run writes.
+ *
+ * A library is never modified after it is built, so one instance can be
+ * searched from any number of threads.
+ */
+public final class RBSLibrary {
+
+    private static final String SNAPSHOT_RESOURCE = "composition/data/rbs_library.bin";
+    private static final int SNAPSHOT_MAGIC = 0x43355242; //"C5RB"
+    private static final int SNAPSHOT_VERSION = 3;
+    private static final String SNAPSHOT_FILE = "c5_rbs_library.bin";
+    private static final String[] SOURCES = {"composition/data/rbs_options.txt", "composition/data/coli_genes.txt"};
+    //size and modification time of each source
+    private static final int STAMP_LENGTH = 2 * SOURCES.length;
+    //hairpin score and the lengths of the five strings of an option
+    private static final int MIN_OPTION_BYTES = 8 + 5 * 4;
+
+    private final List<RBSOption> options;
+    private final Map<String, RBSOption> by_name;
+    private final BKTree<Integer> first6aas_index; //positions in options, keyed by first 6 aas
+    private final double[] hairpins; //hairpin score of each rbs on its own
+    private final String[] tails; //bases at the 3' end of each rbs that a hairpin reaching the junction can start in
+    private final long[] source_stamp; //stamp of the text data files the library was read from, or null
+    private volatile String fingerprint; //hashed on first use
+
+    /**
+     * Indexes a list of options
+     *
+     * @param options the RBS options, in order of preference when scores tie
+     * @throws Exception
+     */
+    public RBSLibrary(List<RBSOption> options) throws Exception {
+        this(options, null, null);
+    }
+
+    /**
+     * @param hairpins the hairpin score of each option's RBS, or null to score them
+     * @param source_stamp stamp of the text data files the options were read from, or null
+     */
+    private RBSLibrary(List<RBSOption> options, double[] hairpins, long[] source_stamp) throws Exception {
+        CalcEditDistance six_aa_scorer = new CalcEditDistance();
+        HairpinCounter second_struct_scorer = new HairpinCounter();
+        six_aa_scorer.initiate();
+        second_struct_scorer.initiate();
+
+        this.options = Collections.unmodifiableList(new ArrayList<>(options));
+        Map<String, RBSOption> names = new HashMap<>();
+        first6aas_index = new BKTree<>(six_aa_scorer);
+        this.hairpins = hairpins != null ? hairpins : new double[options.size()];
+        tails = new String[options.size()];
+        for (int i = 0; i < options.size(); i++) {
+            RBSOption option = options.get(i);
+            names.putIfAbsent(option.getName(), option);
+            first6aas_index.add(option.getFirst6aas(), i);
+
+            String rbs = option.getRbs();
+            if (hairpins == null) {
+                this.hairpins[i] = second_struct_scorer.run(rbs);
+            }
+            tails[i] = rbs.substring(Math.max(0, rbs.length() - HairpinCounter.MAX_HAIRPIN_LENGTH));
+        }
+        by_name = Collections.unmodifiableMap(names);
+        this.source_stamp = source_stamp;
+    }
+
+    /**
+     * Reads the library from the snapshot composition/data/rbs_library.bin if
+     * one built from the current text data files is bundled, and otherwise
+     * from c5_rbs_library.bin in the temporary directory, first writing it
+     * from the text data files if it is missing or stale
+     *
+     * @return the indexed library
+     * @throws Exception
+     */
+    public static RBSLibrary load() throws Exception {
+        long[] stamp = sourceStamp();
+        URL bundled = new C5().getClass().getResource(SNAPSHOT_RESOURCE);
+        if (bundled != null) {
+            RBSLibrary library = readSnapshot(open(bundled), stamp);
+            if (library != null) {
+                return library;
+            }
+        }
+
+        Path snapshot = Paths.get(System.getProperty("java.io.tmpdir"), SNAPSHOT_FILE);
+        RBSLibrary library = readCurrent(snapshot, stamp);
+        if (library != null) {
+            return library;
+        }
+        library = loadText();
+        try {
+            library.writeSnapshot(snapshot);
+        } catch (IOException e) {
+            //the library is loaded either way; the next start just reads the text again
+            System.err.println("could not write RBS library snapshot " + snapshot + ": " + e);
+        }
+        return library;
+    }
+
+    /**
+     * Reads the library from a snapshot file, first writing the snapshot from
+     * the text data files if it does not exist yet or was built from
+     * different ones
+     *
+     * @param snapshot the snapshot file
+     * @return the indexed library
+     * @throws Exception
+     */
+    public static RBSLibrary load(Path snapshot) throws Exception {
+        RBSLibrary library = readCurrent(snapshot, sourceStamp());
+        if (library != null) {
+            return library;
+        }
+        library = loadText();
+        library.writeSnapshot(snapshot);
+        return library;
+    }
+
+    /**
+     * @return the library in a snapshot file, or null if there is none, or it
+     * is stale or damaged and should be written again
+     */
+    private static RBSLibrary readCurrent(Path snapshot, long[] stamp) throws Exception {
+        if (!Files.isRegularFile(snapshot)) {
+            return null;
+        }
+        try {
+            return readSnapshot(FileUtils.mapFile(snapshot.toString()), stamp);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps a snapshot resource, or reads it into memory if it is inside a jar
+     */
+    private static ByteBuffer open(URL snapshot) throws Exception {
+        if ("file".equals(snapshot.getProtocol())) {
+            return FileUtils.mapFile(Paths.get(snapshot.toURI()).toString());
+        }
+        try (InputStream in = snapshot.openStream()) {
+            return ByteBuffer.wrap(in.readAllBytes());
+        }
+    }
+
+    /**
+     * Reads the RBSs of highly-expressed E. coli genes from
+     * composition/data/rbs_options.txt and joins them with the genes in
+     * composition/data/coli_genes.txt
+     *
+     * @return the indexed library
+     * @throws Exception
+     */
+    public static RBSLibrary loadText() throws Exception {
+        long[] source_stamp = sourceStamp();
+        Translate translator = new Translate();
+        translator.initiate();
+
+        List<RBSOption> rbss = new ArrayList<>();
+        TSVParser parser = new TSVParser();
+
+        //parse data for match between rbs options native genes and ecoli genes list,
+        //create rbsoption to add to rbss
+        Map<String,String> rbs_info = new HashMap<>();
+        try (TSVParser.Cursor rbs_rows = parser.open(FileUtils.newResourceReader("composition/data/rbs_options.txt"), false)) {
+            while (rbs_rows.next()) {
+                String src_name = rbs_rows.getString(0);
+                String src_rbs = rbs_rows.getString(1);
+                rbs_info.put(src_name,src_rbs);
+            }
+        }
+
+        //stream the gene table a row at a time, only keeping genes with an rbs option
+        try (TSVParser.Cursor gene_rows = parser.open(FileUtils.newResourceReader("composition/data/coli_genes.txt"), false)) {
+            while (gene_rows.next()) {
+                String name = gene_rows.getString(1);
+
+                if (rbs_info.containsKey(name)) {
+                    String src_desc = gene_rows.getString(0);
+                    String src_rbs = rbs_info.get(name);
+                    String src_cds = gene_rows.getString(6);
+
+                    //translate first 6 aa's from cds
+                    String src_first6aas = translator.run(src_cds.substring(0, 18).toUpperCase());
+
+                    //add rbsoption to rbss (list of rbs option and corresponding native gene cds)
+                    RBSOption rbs_match = new RBSOption(name, src_desc, src_rbs, src_cds, src_first6aas);
+                    rbss.add(rbs_match);
+                }
+            }
+        }
+        return new RBSLibrary(rbss, null, source_stamp);
+    }
+
+    /**
+     * Stamps the text data files a library is read from with their sizes and
+     * modification times, which is enough to notice an edited or replaced
+     * file without reading it
+     *
+     * @return the size and modification time of each file, or null if either is missing
+     * @throws Exception
+     */
+    private static long[] sourceStamp() throws Exception {
+        long[] stamp = new long[STAMP_LENGTH];
+        for (int i = 0; i < SOURCES.length; i++) {
+            URL url = new C5().getClass().getResource(SOURCES[i]);
+            if (url == null) {
+                return null;
+            }
+            if ("file".equals(url.getProtocol())) {
+                Path path = Paths.get(url.toURI());
+                stamp[2 * i] = Files.size(path);
+                stamp[2 * i + 1] = Files.getLastModifiedTime(path).toMillis();
+            } else {
+                //inside a jar, the entry's size and the jar's modification time
+                URLConnection connection = url.openConnection();
+                stamp[2 * i] = connection.getContentLengthLong();
+                stamp[2 * i + 1] = connection.getLastModified();
+                connection.getInputStream().close();
+            }
+        }
+        return stamp;
+    }
+
+    /**
+     * Writes the options and their hairpin scores as a binary snapshot
+     *
+     * The snapshot is a header (magic number, version, size and modification
+     * time of each text data file the library was read from, number of
+     * options) followed by, for each option, its hairpin score and its name,
+     * description, RBS, CDS and first six amino acids as length-prefixed
+     * UTF-8.  A library that was not read from the data files has a stamp of
+     * zeros, so load() never takes it for them.  It is written to a temporary file and moved into place, so a
+     * reader never sees half a snapshot.
+     *
+     * @param path the file to write
+     * @throws IOException
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            for (int i = 0; i < STAMP_LENGTH; i++) {
+                out.writeLong(source_stamp != null ? source_stamp[i] : 0);
+            }
+            out.writeInt(options.size());
+            for (int i = 0; i < options.size(); i++) {
+                RBSOption option = options.get(i);
+                out.writeDouble(hairpins[i]);
+                writeString(out, option.getName());
+                writeString(out, option.getDescription());
+                writeString(out, option.getRbs());
+                writeString(out, option.getCds());
+                writeString(out, option.getFirst6aas());
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot written by writeSnapshot, whatever data files it was
+     * built from, memory-mapping the file
+     *
+     * @param path the snapshot file
+     * @return the indexed library
+     * @throws Exception
+     */
+    public static RBSLibrary readSnapshot(Path path) throws Exception {
+        return readSnapshot(FileUtils.mapFile(path.toString()), null);
+    }
+
+    /**
+     * @param expected_stamp the stamp of the current text data files, or null to accept any snapshot
+     * @return the library, or null if the snapshot was built from other data files
+     * @throws IOException if the snapshot is not a well-formed one of this version
+     */
+    private static RBSLibrary readSnapshot(ByteBuffer buf, long[] expected_stamp) throws Exception {
+        if (buf.remaining() < 8 || buf.getInt() != SNAPSHOT_MAGIC) {
+            throw new IOException("not an RBS library snapshot");
+        }
+        int version = buf.getInt();
+        if (version != SNAPSHOT_VERSION) {
+            //an older snapshot is as stale as one built from other files
+            return null;
+        }
+        require(buf, STAMP_LENGTH * 8 + 4, "header");
+        long[] source_stamp = new long[STAMP_LENGTH];
+        for (int i = 0; i < STAMP_LENGTH; i++) {
+            source_stamp[i] = buf.getLong();
+        }
+        if (expected_stamp != null && !Arrays.equals(source_stamp, expected_stamp)) {
+            return null;
+        }
+        int count = buf.getInt();
+        if (count < 0 || count > buf.remaining() / MIN_OPTION_BYTES) {
+            throw new IOException("RBS library snapshot claims " + count + " options but holds "
+                    + buf.remaining() + " bytes");
+        }
+        List<RBSOption> rbss = new ArrayList<>(count);
+        double[] hairpins = new double[count];
+        for (int i = 0; i < count; i++) {
+            require(buf, 8, "option " + i);
+            hairpins[i] = buf.getDouble();
+            String name = readString(buf);
+            String description = readString(buf);
+            String rbs = readString(buf);
+            String cds = readString(buf);
+            String first6aas = readString(buf);
+            rbss.add(new RBSOption(name, description, rbs, cds, first6aas));
+        }
+        return new RBSLibrary(rbss, hairpins, source_stamp);
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) throws IOException {
+        require(buf, 4, "string length");
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new IOException("RBS library snapshot string of " + length + " bytes but "
+                    + buf.remaining() + " remain");
+        }
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void require(ByteBuffer buf, int bytes, String what) throws IOException {
+        if (buf.remaining() < bytes) {
+            throw new IOException("RBS library snapshot is truncated in " + what);
+        }
+    }
+
+    public int size() {
+        return options.size();
+    }
+
+    /**
+     * @param index position of an option in the library
+     * @return the option
+     */
+    public RBSOption get(int index) {
+        return options.get(index);
+    }
+
+    /**
+     * @return every option, in library order
+     */
+    public List<RBSOption> getOptions() {
+        return options;
+    }
+
+    /**
+     * Looks up an option by name
+     *
+     * @param name the gene name of the option
+     * @return the option, or null if there is none of that name
+     */
+    public RBSOption getOption(String name) {
+        return by_name.get(name);
+    }
+
+    /**
+     * Identifies the content of the library: two libraries have the same
+     * fingerprint only if they hold the same options in the same order
+     *
+     * @return a hex SHA-256 digest of every option
+     */
+    public String getFingerprint() {
+        String out = fingerprint;
+        if (out == null) {
+            MessageDigest digest = sha256();
+            for (RBSOption option : options) {
+                for (String field : new String[]{option.getName(), option.getRbs(), option.getCds(),
+                        option.getFirst6aas()}) {
+                    digest.update(field.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
+                }
+            }
+            out = HexFormat.of().formatHex(digest.digest());
+            fingerprint = out;
+        }
+        return out;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            //every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Starts a search for the options whose first six amino acids are
+     * nearest to a peptide's
+     *
+     * @param first6aas the first six amino acids of the peptide
+     * @return a search yielding positions of options one edit distance at a time
+     */
+    public BKTree<Integer>.Search search(String first6aas) {
+        return first6aas_index.search(first6aas);
+    }
+
+    /**
+     * @param index position of an option in the library
+     * @return the hairpin score of the option's RBS on its own
+     */
+    public double getHairpin(int index) {
+        return hairpins[index];
+    }
+
+    /**
+     * @param index position of an option in the library
+     * @return the last HairpinCounter.MAX_HAIRPIN_LENGTH bases of the option's RBS
+     */
+    public String getTail(int index) {
+        return tails[index];
+    }
+
+    /**
+     * Writes the snapshot of the text data files, by default to
+     * src/org/ucb/c5/composition/data/rbs_library.bin so load() finds it, and
+     * compares how long each takes to load
+     */
+    public static void main(String[] args) throws Exception {
+        Path path = Paths.get(args.length > 0 ? args[0] : "src/org/ucb/c5/" + SNAPSHOT_RESOURCE);
+
+        long start = System.nanoTime();
+        RBSLibrary library = loadText();
+        long text_ns = System.nanoTime() - start;
+        library.writeSnapshot(path);
+
+        start = System.nanoTime();
+        RBSLibrary snapshot = readSnapshot(path);
+        long snapshot_ns = System.nanoTime() - start;
+
+        System.out.println("wrote " + snapshot.size() + " options to " + path);
+        System.out.printf("text %.1f ms, snapshot %.1f ms%n", text_ns / 1e6, snapshot_ns / 1e6);
+    }
+}
@@ -2,24 +2,23 @@ package org.ucb.c5.composition;
 
 import java.util.ArrayList;
 import java.util.List;
-import org.ucb.c5.sequtils.RevComp;
+import org.ucb.c5.sequtils.SiteMatcher;
 
 /**
  * Checks a sequence for forbidden sequences
  * 
+ * The forbidden sites are compiled once by the constructor, so one checker
+ * can be shared between threads.
+ * 
  * @author J. Christopher Anderson
  */
 public class SequenceChecker {
     
-    private RevComp revcomp;
-    private List<String> forbidden;
+    private final SiteMatcher matcher;
     
-    public void initiate() {
-        revcomp = new RevComp();
-        revcomp.initiate();
-     
+    public SequenceChecker() {
         //Populate forbidden sequences
-        forbidden = new ArrayList<>();
+        List<String> forbidden = new ArrayList<>();
         forbidden.add("AAAAAAAA"); //poly(A)
         forbidden.add("TTTTTTTT"); //poly(T)
         forbidden.add("CCCCCCCC"); //poly(C)
@@ -38,35 +37,66 @@ public class SequenceChecker {
         forbidden.add("CTCGAG");   //XhoI
         forbidden.add("GCGGCCGC"); //NotI
         forbidden.add("AAGCTT");   //HindIII
+
+        //Compile the sites and their reverse complements into one automaton
+        matcher = new SiteMatcher(forbidden);
+    }
+    
+    public void initiate() {
+        //the sites are compiled by the constructor
     }
     
     /**
-     * Checks a DNA sequence for forbidden Strings
+     * Checks a DNA sequence for forbidden Strings on either strand
      * 
      * @param dnaseq
      * @return true if passes; false if contains a forbidden sequence
      */
     public boolean run(String dnaseq) {
-        String rc = revcomp.run(dnaseq);
-        String combined = dnaseq + "x" + rc;
-        combined = combined.toUpperCase();
-       // List<String> found = new ArrayList<>();
-        for(String site : forbidden) {
-            if(combined.contains(site)) {
-//                found.add(site);
-                return false;
-            }
-        }
-//        if (found.size() != 0) {
-//            for(String seq: found) {
-//                System.out.println("forbidden seq: " + seq);
-//                System.out.println("index of fb: " + combined.indexOf(seq));
-//            }
-//            return false;
-//        }
-
-        
-        return true;
+        return !matcher.contains(dnaseq);
+    }
+    
+    /**
+     * Checks a range of a DNA sequence for forbidden Strings on either strand
+     * 
+     * @param dnaseq
+     * @param start first index checked, inclusive
+     * @param end last index checked, exclusive
+     * @return true if passes; false if the range contains a forbidden sequence
+     */
+    public boolean run(CharSequence dnaseq, int start, int end) {
+        return matcher.firstHit(dnaseq, start, end) == -1;
+    }
+    
+    /**
+     * Checks a range of a DNA sequence followed by more bases, as though they
+     * were one sequence, for forbidden Strings on either strand
+     * 
+     * @param dnaseq
+     * @param start first index checked, inclusive
+     * @param end last index checked, exclusive
+     * @param appended the bases following the range
+     * @return true if passes; false if the joined sequence contains a forbidden sequence
+     */
+    public boolean run(CharSequence dnaseq, int start, int end, CharSequence appended) {
+        return matcher.firstHit(dnaseq, start, end, appended) == -1;
+    }
+    
+    /**
+     * @return the length of the longest forbidden sequence on either strand
+     */
+    public int getMaxSiteLength() {
+        return matcher.getMaxLength();
+    }
+    
+    /**
+     * Lists every forbidden sequence found in a DNA sequence
+     * 
+     * @param dnaseq
+     * @return the forbidden sites found and their positions
+     */
+    public List<SiteMatcher.Hit> findForbidden(String dnaseq) {
+        return matcher.findAll(dnaseq);
     }
     
     public static void main(String[] args) {
@@ -74,5 +104,6 @@ public class SequenceChecker {
         checker.initiate();
         boolean result = checker.run("GGGGGGGGG");  //returns false due to poly(G)
         System.out.println(result);
+        System.out.println(checker.findForbidden("ttGAATTCaaGAGACCaa"));  //EcoRI and BsaI (-)
     }
 }
@@ -1,120 +1,428 @@
 package org.ucb.c5.composition;
 
+import org.ucb.c5.composition.model.Host;
 import org.ucb.c5.sequtils.HairpinCounter;
+import org.ucb.c5.sequtils.SequenceStats;
+import org.ucb.c5.utils.MetricsRegistry;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 /**
  * This reverse translates and chooses the best codons to use for a given protein
  * using the GeneOptimizer algorithm (enumerating and ranking a sliding window)
  *
+ * Alternatively, a beam search keeps the best few partial designs codon by
+ * codon, which is deterministic and avoids sampling the same or rejected
+ * permutations over and over
+ *
  * @author Siddharth Gampa
  *
  */
 public class SequenceChooser {
+
+    /**
+     * The algorithm used to choose codons
+     */
+    public enum Engine {
+        SAMPLING,  //GeneOptimizer-style random sampling of each window
+        BEAM       //Beam search over partial designs, codon by codon
+    }
+
     private SequenceChecker seqCheck;
     private AminoAcidToCodon translator;
+    private CodonUsageTable codon_usage;
     private HairpinCounter hairpin;
+    private boolean incremental = true;
+    private int local_gc_window = 0;
+    private double local_gc_min;
+    private double local_gc_max;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private Engine engine = Engine.SAMPLING;
+    private int beam_width = 16;
+    private int memo_size = DEFAULT_MEMO_SIZE;
+    // access ordered, so the least recently used window is evicted once memo_size are remembered
+    private final Map<String, String> window_memo = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > memo_size;
+        }
+    };
+
+    // candidates are evaluated in batches of at most this many, split across the pool
+    private static final int BATCH_SIZE = 64;
+    // below this many candidates a task evaluates them itself instead of forking
+    private static final int TASK_THRESHOLD = 4;
+    // widest beam tried before the beam engine gives up on a protein
+    private static final int MAX_BEAM_WIDTH = 1024;
+    // windows whose chosen codons are remembered, unless setMemoSize says otherwise
+    private static final int DEFAULT_MEMO_SIZE = 65536;
+    // mixed into every window's seed so results stay consistent
+    private static final long WINDOW_SEED = 100;
+
+    // how the chooser spends its time, recorded into the default registry
+    private static final MetricsRegistry.Histogram RUN_TIME = MetricsRegistry.getDefault().histogram(
+            "sequence_chooser_run_seconds", "Time to choose the codons of a protein");
+    private static final MetricsRegistry.Histogram WINDOW_TIME = MetricsRegistry.getDefault().histogram(
+            "sequence_chooser_window_seconds", "Time to sample and rank the permutations of a window");
+    private static final MetricsRegistry.Counter WINDOWS = MetricsRegistry.getDefault().counter(
+            "sequence_chooser_windows_total", "Windows codons were chosen for, sampled or remembered");
+    private static final MetricsRegistry.Counter MEMO_HITS = MetricsRegistry.getDefault().counter(
+            "sequence_chooser_window_memo_hits_total", "Windows whose codons were taken from the memo");
+    private static final MetricsRegistry.Counter PERMS_TRIED = MetricsRegistry.getDefault().counter(
+            "sequence_chooser_permutations_tried_total", "Random permutations built and checked");
+    private static final MetricsRegistry.Counter PERMS_ACCEPTED = MetricsRegistry.getDefault().counter(
+            "sequence_chooser_permutations_accepted_total", "Permutations kept for ranking");
+    private static final MetricsRegistry.Counter FALLBACKS = MetricsRegistry.getDefault().counter(
+            "sequence_chooser_fallbacks_total",
+            "Windows that kept permutations failing the GC check after 1000 tries");
+    // the checker and hairpin counter record nothing themselves, so their work is counted here once per window
+    private static final MetricsRegistry.Counter SITE_CHECKS = MetricsRegistry.getDefault().counter(
+            "sequence_checker_checks_total", "Sequences checked for forbidden sites");
+    private static final MetricsRegistry.Counter SITE_REJECTED = MetricsRegistry.getDefault().counter(
+            "sequence_checker_rejected_total", "Checked sequences holding a forbidden site");
+    private static final MetricsRegistry.Counter SITE_BASES = MetricsRegistry.getDefault().counter(
+            "sequence_checker_bases_total", "Bases scanned for forbidden sites");
+    private static final MetricsRegistry.Counter HAIRPIN_BASES = MetricsRegistry.getDefault().counter(
+            "hairpin_counter_bases_total", "Bases scored for hairpins");
     
 
     public void initiate() throws Exception {
+        initiate(DesignContext.getDefault());
+    }
+
+    /**
+     * Initiates the chooser on the tables of a design context, which are
+     * shared rather than built again.  Once its settings are made, run can be
+     * called from several threads at once.
+     *
+     * @param context the loaded design data
+     * @throws Exception
+     */
+    public void initiate(DesignContext context) throws Exception {
         // initiate tools and tables
-        seqCheck = new SequenceChecker();
-        translator = new AminoAcidToCodon();
+        seqCheck = context.getSequenceChecker();
+        translator = context.getAminoAcidToCodon();
+        codon_usage = context.getCodonUsage();
         hairpin = new HairpinCounter();
+        // remembered windows were chosen from the old context's codon usage
+        clearMemo();
 
-        seqCheck.initiate();
-        translator.initiate();
         hairpin.initiate();
     }
 
-    private double GCCheck(String seq) {
-        double GC_content = 0;
-        for (int i = 0; i < seq.length(); i++) {
-            char nuc = seq.charAt(i);
-            if (nuc == 'G' || nuc == 'C') {
-                GC_content += 1;
+    /**
+     * Selects how candidate windows are checked against the design so far.
+     *
+     * When incremental (the default), the chooser only site-checks the
+     * candidate together with the last few bases of the preamble that a
+     * forbidden site could still span, so each window costs the same however
+     * long the protein is.  Otherwise the whole preamble is rescanned for
+     * every candidate.  Both modes choose the same codons.
+     *
+     * @param incremental true to evaluate only the junction and candidate
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Adds a local GC constraint on top of the global 40-60% check: every
+     * window of the given number of bases must have a GC fraction between min
+     * and max (inclusive).  A window of 0 disables the constraint, which is
+     * the default.
+     *
+     * @param window bases per window, or 0 to disable
+     * @param min lowest allowed GC fraction in any window
+     * @param max highest allowed GC fraction in any window
+     */
+    public void setLocalGC(int window, double min, double max) {
+        this.local_gc_window = window;
+        this.local_gc_min = min;
+        this.local_gc_max = max;
+        clearMemo();
+    }
+
+    /**
+     * Selects the algorithm used to choose codons; SAMPLING by default
+     *
+     * @param engine the algorithm to use
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Sets how many partial designs the BEAM engine keeps after each codon.
+     * Wider beams find better-scoring designs at a proportional CPU cost.
+     *
+     * @param beam_width number of partial designs kept, at least 1
+     */
+    public void setBeamWidth(int beam_width) {
+        if (beam_width < 1) {
+            throw new IllegalArgumentException("beam width must be at least 1: " + beam_width);
+        }
+        this.beam_width = beam_width;
+    }
+
+    /**
+     * Sets the pool candidate permutations are evaluated on; the common pool
+     * is used by default.  Every candidate draws its codons from its own
+     * random stream split off in a fixed order, so the chosen codons are the
+     * same whatever the parallelism of the pool.
+     *
+     * @param pool the pool to evaluate candidates on
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets how many windows the sampling engine remembers the chosen codons
+     * of; 0 disables the memo.  A window's codons only depend on its amino
+     * acids, the host, the last few bases of the design that a forbidden site
+     * or local GC window can reach back into, and which GC counts would keep
+     * the whole design within 40-60%.  Each window samples from a stream
+     * seeded by exactly those, so a remembered window is the same as a
+     * recomputed one and the memo never changes a design.  The memo is kept
+     * across calls and can be shared by concurrent runs; once full, the least
+     * recently used window is forgotten.
+     *
+     * @param memo_size the number of windows remembered, or 0
+     */
+    public void setMemoSize(int memo_size) {
+        if (memo_size < 0) {
+            throw new IllegalArgumentException("memo size cannot be negative: " + memo_size);
+        }
+        this.memo_size = memo_size;
+        clearMemo();
+    }
+
+    /**
+     * Describes the settings that change which codons are chosen, so designs
+     * made with different settings can be told apart.  The pool and the
+     * incremental flag are left out as they never change the result.
+     *
+     * @return the engine and its constraints, as text
+     */
+    public String getParameters() {
+        StringBuilder out = new StringBuilder();
+        out.append("engine=").append(engine);
+        if (engine == Engine.BEAM) {
+            out.append(";beam_width=").append(beam_width);
+        }
+        if (local_gc_window > 0) {
+            out.append(";local_gc=").append(local_gc_window)
+                    .append(',').append(local_gc_min).append(',').append(local_gc_max);
+        }
+        return out.toString();
+    }
+
+    /**
+     * checks GC of the design so far plus a candidate appended to it, without modifying stats
+     */
+    private boolean isValidGC(CharSequence preamble, SequenceStats stats, String perm_seq, int perm_gc) {
+        int preamble_len = preamble.length();
+        double GC = (double) (stats.countGC(0, preamble_len) + perm_gc) / (preamble_len + perm_seq.length());
+        if (GC <= 0.40 || GC >= 0.60) {
+            return false;
+        }
+        if (local_gc_window == 0) {
+            return true;
+        }
+        // only windows overlapping the candidate can change; each counts the preamble part from the prefix sums in
+        // stats and the candidate part from running counts up to the window's start and end
+        int end_len = preamble_len + perm_seq.length();
+        int perm_gc_to_start = 0;
+        int perm_gc_to_end = 0;
+        int perm_start = 0;
+        int perm_end = 0;
+        for (int start = Math.max(0, preamble_len - local_gc_window + 1); start + local_gc_window <= end_len; start++) {
+            int end = start + local_gc_window;
+            for (; perm_end < end - preamble_len; perm_end++) {
+                if (isGC(perm_seq.charAt(perm_end))) {
+                    perm_gc_to_end++;
+                }
+            }
+            for (; perm_start < start - preamble_len; perm_start++) {
+                if (isGC(perm_seq.charAt(perm_start))) {
+                    perm_gc_to_start++;
+                }
+            }
+            int window_gc = stats.countGC(Math.min(start, preamble_len), preamble_len)
+                    + perm_gc_to_end - perm_gc_to_start;
+            double local_GC = (double) window_gc / local_gc_window;
+            if (local_GC < local_gc_min || local_GC > local_gc_max) {
+                return false;
             }
         }
-        return GC_content / seq.length();
+        return true;
     }
 
-    private boolean isValidGC(String seq) {
-        double GC = GCCheck(seq);
-        return (GC > 0.40 && GC < 0.60);
+    private static boolean isGC(char nuc) {
+        return nuc == 'G' || nuc == 'C' || nuc == 'g' || nuc == 'c';
+    }
+
+    /**
+     * builds one random permutation for the window and scores it
+     */
+    private Candidate evaluate(CharSequence preamble, SequenceStats stats, String aa_window,
+                               CodonUsageTable.Usage usage, SplittableRandom rand) throws Exception {
+        StringBuilder perm = new StringBuilder(aa_window.length() * 3);
+
+        //grab one random codon per amino acid to create a permutation, weighted by host usage if given
+        for (int j = 0; j < aa_window.length(); j++) {
+            char aa = aa_window.charAt(j);
+            if (usage != null) {
+                perm.append(usage.sample(aa, rand));
+                continue;
+            }
+            List<String> possible_codons = translator.getCodons(aa);
+            int codon_ind = rand.nextInt(possible_codons.size());
+            perm.append(possible_codons.get(codon_ind));
+        }
+
+        String perm_seq = perm.toString();
+        int perm_gc = 0;
+        for (int j = 0; j < perm_seq.length(); j++) {
+            if (isGC(perm_seq.charAt(j))) {
+                perm_gc++;
+            }
+        }
+        double perm_GC = perm_seq.isEmpty() ? 0 : (double) perm_gc / perm_seq.length();
+        double perm_hp = hairpin.run(perm_seq);
+        boolean isValidGC = isValidGC(preamble, stats, perm_seq, perm_gc);
+
+        boolean isFBfree;
+        int preamble_len = preamble.length();
+        if (incremental) {
+            // only check the junction with the preamble, which a forbidden seq can reach back into, and the permutation
+            int context_start = Math.max(0, preamble_len - (seqCheck.getMaxSiteLength() - 1));
+            isFBfree = seqCheck.run(preamble, context_start, preamble_len, perm_seq);
+        }
+        else {
+            isFBfree = seqCheck.run(preamble + perm_seq);
+        }
+
+        return new Candidate(new DNAPermutation(perm_seq, perm_GC, perm_hp), isFBfree, isValidGC);
     }
 
     /**
      * helper method to create permutations of aa seq
+     * @param preamble - dna chosen so far, already free of forbidden seqs
+     * @param stats - composition index over preamble
      * @param aa_window - sliding window of aa's to optimize codons for
+     * @param usage - codon usage to sample from, or null to sample codons uniformly
+     * @param window_rand - random stream for this window, split once per candidate
      * @return perms = 100 random, valid (no forbidden seqs) permutations
-     *                  of dna seqs for aa window
+     *                  of dna seqs for aa window, and how many candidates it took
      */
-    private Set<DNAPermutation> getValidPerms(String preamble, String aa_window) throws Exception{
+    private WindowSample getValidPerms(CharSequence preamble, SequenceStats stats, String aa_window,
+                                       CodonUsageTable.Usage usage, SplittableRandom window_rand) throws Exception{
         //count number of possible codon permutations for window
         int num_poss = 1;
-        for(int i = 0; i < aa_window.length() && num_poss < 100; i++) {
+        for(int i = 0; i < aa_window.length(); i++) {
             char aa = aa_window.charAt(i);
-            if (!translator.table.containsKey(aa)) {
+            List<String> possible_codons = translator.getCodons(aa);
+            if (possible_codons == null) {
                 throw new IllegalArgumentException("amino acid is not valid: " + aa);
             }
-            num_poss *= translator.table.get(aa).length;
-        }
-
-        // limit permutations to 100 to speed up process
-        if (num_poss > 100) {
-            num_poss = 100;
+            num_poss = Math.min(num_poss * possible_codons.size(), 100);
         }
 
         // generate DNA permutations from RNG, keeping ones that have no forbidden seqs and good GC content and hairpins
         // if possible
         Set<DNAPermutation> perms = new HashSet<>(); //Hashset to ensure no duplicate perms
-        Random rand = new Random(100); //seeded to ensure consistency
         int num_good_perms = 0;
         int total_tried_perms = 0;
+        int evaluated = 0;
+        int rejected = 0;
 
         // iterate through permutations until we find either all possible perms or 100 perms if large perm possiblities
         while(num_good_perms < num_poss) {
-            StringBuilder perm = new StringBuilder();
-
-            //grab one random codon per amino acid to create a permutation
-            for (int j = 0; j < aa_window.length(); j++) {
-                char aa = aa_window.charAt(j);
-                if (!translator.table.containsKey(aa)) {
-                    throw new IllegalArgumentException("amino acid is not valid");
+            // split a stream per candidate here, in order, so results don't depend on how the pool schedules them
+            int batch_size = Math.min(BATCH_SIZE, num_poss - num_good_perms);
+            SplittableRandom[] streams = new SplittableRandom[batch_size];
+            for (int k = 0; k < batch_size; k++) {
+                streams[k] = window_rand.split();
+            }
+            Candidate[] batch = new Candidate[batch_size];
+            pool.invoke(new EvaluateTask(preamble, stats, aa_window, usage, streams, batch, 0, batch_size));
+            evaluated += batch_size;
+            for (Candidate candidate : batch) {
+                if (!candidate.isFBfree) {
+                    rejected++;
                 }
-                String[] possible_codons = translator.table.get(aa);
-                int codon_ind = rand.nextInt(possible_codons.length);
-                String codon = possible_codons[codon_ind];
-                perm.append(codon);
             }
 
-            total_tried_perms++;
-            String perm_seq = perm.toString();
-            double perm_GC = GCCheck(perm_seq);
-            double perm_hp = hairpin.run(perm_seq);
-            String total_perm = preamble + perm_seq;
-            DNAPermutation good_perm = new DNAPermutation(perm_seq, perm_GC, perm_hp);
-
-            boolean isFBfree = seqCheck.run(total_perm);
-            boolean isValidGC = isValidGC(total_perm);
+            // consume the batch in order, exactly as if the candidates had been tried one after another
+            for (int k = 0; k < batch_size && num_good_perms < num_poss; k++) {
+                Candidate candidate = batch[k];
+                total_tried_perms++;
 
-            // only add to perms list if it meets min reqs for structure, or if there are few possible perms or if
-            // we have already iterated through many perms without finding an optimal one
-            if (num_poss == 100 && isFBfree && isValidGC){
-                perms.add(good_perm);
-                num_good_perms++; }
-            else if ((num_poss < 100 || total_tried_perms > 1000) && isFBfree) {
-                perms.add(good_perm);
-                num_good_perms++;
+                // only add to perms list if it meets min reqs for structure, or if there are few possible perms or if
+                // we have already iterated through many perms without finding an optimal one
+                if (num_poss == 100 && candidate.isFBfree && candidate.isValidGC){
+                    perms.add(candidate.perm);
+                    num_good_perms++; }
+                else if ((num_poss < 100 || total_tried_perms > 1000) && candidate.isFBfree) {
+                    perms.add(candidate.perm);
+                    num_good_perms++;
+                }
             }
         }
-        return perms;
+
+        // record once per window rather than per candidate
+        PERMS_TRIED.add(total_tried_perms);
+        PERMS_ACCEPTED.add(num_good_perms);
+        // every evaluated candidate was site-checked and hairpin-scored, even those past the last one consumed
+        int perm_len = aa_window.length() * 3;
+        int checked_len = incremental
+                ? Math.min(preamble.length(), seqCheck.getMaxSiteLength() - 1) + perm_len
+                : preamble.length() + perm_len;
+        SITE_CHECKS.add(evaluated);
+        SITE_REJECTED.add(rejected);
+        SITE_BASES.add((long) evaluated * checked_len);
+        HAIRPIN_BASES.add((long) evaluated * perm_len);
+        boolean fallback = num_poss == 100 && total_tried_perms > 1000;
+        if (fallback) {
+            FALLBACKS.inc();
+        }
+        return new WindowSample(perms, total_tried_perms, num_good_perms, fallback);
     }
 
 
     public String[] run(String peptide) throws Exception{
+        return run(peptide, null);
+    }
+
+    /**
+     * Chooses codons for a protein to be expressed in a host.  The sampling
+     * engine draws codons in proportion to the host's codon usage, so fewer
+     * permutations with rare codons are tried; the beam engine, which tries
+     * every codon, is unaffected.
+     *
+     * @param peptide the protein sequence
+     * @param host the organism the design is for, or null to sample codons uniformly
+     * @return one codon per amino acid
+     * @throws Exception
+     */
+    public String[] run(String peptide, Host host) throws Exception{
+        long start = System.nanoTime();
+        try {
+            if (engine == Engine.BEAM) {
+                return runBeam(peptide);
+            }
+            return runSampling(peptide, host);
+        } finally {
+            RUN_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    private String[] runSampling(String peptide, Host host) throws Exception {
+        CodonUsageTable.Usage usage = host == null ? null : codon_usage.get(host);
         String[] codons = new String[peptide.length()];
         /**
          * for each window of 3 aa (GeneOptimizer algorithm):
@@ -123,6 +431,7 @@ public class SequenceChooser {
          *  throw out forbidden seq permutations, choose best from rest
          **/
         StringBuilder preamble = new StringBuilder();
+        SequenceStats stats = new SequenceStats();
         for (int i = 0; i < peptide.length(); i += 3) {
             String target_aas;
             int downstream_start = i + 3;
@@ -142,38 +451,43 @@ public class SequenceChooser {
             }
 
             String aa_sub_window = target_aas + peptide.substring(downstream_start, downstream_end);
-            // convert to list to allow sorting of permutations by attributes
-            List<DNAPermutation> dna_perms = new ArrayList(getValidPerms(preamble.toString(), aa_sub_window));
-
-            //sort dna permutations for this window by checking hairpin count first, then good GC
-            Collections.sort(dna_perms, new Comparator<DNAPermutation>() {
-                @Override
-                public int compare(DNAPermutation t1, DNAPermutation t2) {
-                    double GC1 = t1.getGC_content();
-                    double GC2 = t2.getGC_content();
-                    double hp1 = t1.getHairpin();
-                    double hp2 = t2.getHairpin();
-
-                    if (hp1 == hp2 && hp1 == 0) {
-                        if (GC1 > GC2)
-                            return 1;
-                        else if (GC2 > GC1) {
-                            return -1;
-                        }
-                    }
-                    else if (hp1 > hp2) {
-                        return -1;
-                    }
-                    else if (hp2 > hp1) {
-                        return 1;
-                    }
-                    return 0;
+
+            DesignEvents.SequenceWindow event = new DesignEvents.SequenceWindow();
+            event.begin();
+
+            // reuse the codons of an identical earlier window, which would be chosen again
+            String key = windowKey(preamble, stats, aa_sub_window, host);
+            String chosen = memo_size > 0 ? recall(key) : null;
+            WindowSample sample = null;
+            if (chosen == null) {
+                long window_start = System.nanoTime();
+                sample = getValidPerms(preamble, stats, aa_sub_window, usage, windowRandom(key));
+                chosen = chooseWindow(sample.perms, target_aas);
+                WINDOW_TIME.record(System.nanoTime() - window_start);
+                if (memo_size > 0) {
+                    remember(key, chosen);
                 }
-            });
+            }
+            else {
+                MEMO_HITS.inc();
+            }
+            WINDOWS.inc();
 
-            // keep best permutation and append it to the preamble which will be considered when optimizing next window
-            String best_perm = dna_perms.get(dna_perms.size() - 1).getSeq();
-            preamble.append(best_perm.substring(0,target_aas.length() * 3));
+            event.end();
+            if (event.shouldCommit()) {
+                event.peptideLength = peptide.length();
+                event.windowIndex = i / 3;
+                event.windowLength = aa_sub_window.length();
+                event.memoHit = sample == null;
+                if (sample != null) {
+                    event.candidatesTried = sample.tried;
+                    event.candidatesAccepted = sample.accepted;
+                    event.fallback = sample.fallback;
+                }
+                event.commit();
+            }
+            preamble.append(chosen);
+            stats.append(chosen);
         }
 
         // turn complete dna seq into codon list to return
@@ -186,4 +500,331 @@ public class SequenceChooser {
 
         return codons;
     }
+
+    /**
+     * Describes everything the choice for a window depends on: the window and
+     * host, the end of the design a forbidden site or local GC window could
+     * span, and the candidate GC counts that keep the whole design in bounds
+     */
+    private String windowKey(CharSequence preamble, SequenceStats stats, String aa_window, Host host) {
+        int preamble_len = preamble.length();
+        int context_len = seqCheck.getMaxSiteLength() - 1;
+        if (local_gc_window > 0) {
+            context_len = Math.max(context_len, local_gc_window - 1);
+        }
+        int context_start = Math.max(0, preamble_len - context_len);
+
+        // bit g is set if a candidate with g G's and C's passes the global GC check, computed as isValidGC does
+        int perm_len = aa_window.length() * 3;
+        int preamble_gc = stats.countGC(0, preamble_len);
+        long gc_mask = 0;
+        for (int g = 0; g <= perm_len; g++) {
+            double GC = (double) (preamble_gc + g) / (preamble_len + perm_len);
+            if (GC > 0.40 && GC < 0.60) {
+                gc_mask |= 1L << g;
+            }
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append(preamble, context_start, preamble_len).append('|');
+        key.append(aa_window).append('|');
+        key.append(host).append('|');
+        key.append(Long.toHexString(gc_mask));
+        return key.toString();
+    }
+
+    private String recall(String key) {
+        synchronized (window_memo) {
+            return window_memo.get(key);
+        }
+    }
+
+    private void remember(String key, String chosen) {
+        synchronized (window_memo) {
+            window_memo.put(key, chosen);
+        }
+    }
+
+    private void clearMemo() {
+        synchronized (window_memo) {
+            window_memo.clear();
+        }
+    }
+
+    /**
+     * seeds the random stream of a window from its key, so the same window in the same context always samples the
+     * same permutations
+     */
+    private static SplittableRandom windowRandom(String key) {
+        long seed = WINDOW_SEED;
+        for (int k = 0; k < key.length(); k++) {
+            seed = 31 * seed + key.charAt(k);
+        }
+        return new SplittableRandom(seed);
+    }
+
+    /**
+     * ranks the sampled permutations of one window and returns the codons of the best one for its target amino acids
+     */
+    private String chooseWindow(Set<DNAPermutation> perms, String target_aas) {
+        // convert to list to allow sorting of permutations by attributes
+        List<DNAPermutation> dna_perms = new ArrayList<>(perms);
+
+        //sort dna permutations for this window by checking hairpin count first, then good GC
+        Collections.sort(dna_perms, new Comparator<DNAPermutation>() {
+            @Override
+            public int compare(DNAPermutation t1, DNAPermutation t2) {
+                double GC1 = t1.getGC_content();
+                double GC2 = t2.getGC_content();
+                double hp1 = t1.getHairpin();
+                double hp2 = t2.getHairpin();
+
+                if (hp1 == hp2 && hp1 == 0) {
+                    if (GC1 > GC2)
+                        return 1;
+                    else if (GC2 > GC1) {
+                        return -1;
+                    }
+                }
+                else if (hp1 > hp2) {
+                    return -1;
+                }
+                else if (hp2 > hp1) {
+                    return 1;
+                }
+                return 0;
+            }
+        });
+
+        // keep best permutation, which is appended to the preamble considered when optimizing next window
+        String best_perm = dna_perms.get(dna_perms.size() - 1).getSeq();
+        return best_perm.substring(0,target_aas.length() * 3);
+    }
+
+    /**
+     * The permutations sampled for a window and how many candidates it took to find them
+     */
+    private static class WindowSample {
+        private final Set<DNAPermutation> perms;
+        private final int tried;
+        private final int accepted;
+        private final boolean fallback;
+
+        WindowSample(Set<DNAPermutation> perms, int tried, int accepted, boolean fallback) {
+            this.perms = perms;
+            this.tried = tried;
+            this.accepted = accepted;
+            this.fallback = fallback;
+        }
+    }
+
+    /**
+     * A scored permutation and whether it passed the site and GC checks
+     */
+    private static class Candidate {
+        private final DNAPermutation perm;
+        private final boolean isFBfree;
+        private final boolean isValidGC;
+
+        Candidate(DNAPermutation perm, boolean isFBfree, boolean isValidGC) {
+            this.perm = perm;
+            this.isFBfree = isFBfree;
+            this.isValidGC = isValidGC;
+        }
+    }
+
+    /**
+     * Evaluates a range of a batch of candidates, splitting it in half until small enough
+     */
+    private class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence preamble;
+        private final SequenceStats stats;
+        private final String aa_window;
+        private final CodonUsageTable.Usage usage;
+        private final SplittableRandom[] streams;
+        private final Candidate[] out;
+        private final int start;
+        private final int end;
+
+        EvaluateTask(CharSequence preamble, SequenceStats stats, String aa_window, CodonUsageTable.Usage usage,
+                     SplittableRandom[] streams, Candidate[] out, int start, int end) {
+            this.preamble = preamble;
+            this.stats = stats;
+            this.aa_window = aa_window;
+            this.usage = usage;
+            this.streams = streams;
+            this.out = out;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= TASK_THRESHOLD) {
+                try {
+                    for (int k = start; k < end; k++) {
+                        out[k] = evaluate(preamble, stats, aa_window, usage, streams[k]);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new EvaluateTask(preamble, stats, aa_window, usage, streams, out, start, mid),
+                    new EvaluateTask(preamble, stats, aa_window, usage, streams, out, mid, end));
+        }
+    }
+
+    /**
+     * Chooses codons with a beam search.  Partial designs are extended one
+     * codon at a time with every synonymous codon; extensions creating a
+     * forbidden seq (or breaking the local GC constraint) are dropped, designs
+     * that end in the same bases are merged, and the beam_width lowest-scoring
+     * designs are kept.  The score is the hairpin score plus the number of
+     * bases by which GC count lies outside 40-60%, both updated from the last
+     * few bases only.
+     *
+     * If every design in a narrow beam runs into a dead end, the search is
+     * repeated with a beam twice as wide.
+     */
+    private String[] runBeam(String peptide) throws Exception {
+        for (int width = beam_width; width <= MAX_BEAM_WIDTH; width *= 2) {
+            String[] codons = runBeam(peptide, width);
+            if (codons != null) {
+                return codons;
+            }
+        }
+        throw new IllegalStateException("no codon choice avoids forbidden sequences in " + peptide);
+    }
+
+    /**
+     * @return the chosen codons, or null if every design hit a dead end
+     */
+    private String[] runBeam(String peptide, int width) throws Exception {
+        // the most bases any check needs to look back over from the end of a design
+        int tail_length = Math.max(HairpinCounter.MAX_HAIRPIN_LENGTH, seqCheck.getMaxSiteLength() - 1);
+        tail_length = Math.max(tail_length, local_gc_window - 1);
+
+        List<BeamState> beam = new ArrayList<>();
+        beam.add(new BeamState(null, null, "", 0, 0, 0));
+        for (int i = 0; i < peptide.length(); i++) {
+            char aa = peptide.charAt(i);
+            List<String> possible_codons = translator.getCodons(aa);
+            if (possible_codons == null) {
+                throw new IllegalArgumentException("amino acid is not valid: " + aa);
+            }
+
+            List<BeamState> next = extendBeam(beam, possible_codons, tail_length, width, true);
+            if (next.isEmpty() && local_gc_window > 0) {
+                // relax the local GC constraint rather than fail, as the sampling engine does
+                next = extendBeam(beam, possible_codons, tail_length, width, false);
+            }
+            if (next.isEmpty()) {
+                return null;
+            }
+            beam = next;
+        }
+
+        // walk back from the best design to recover its codons
+        String[] codons = new String[peptide.length()];
+        BeamState state = beam.get(0);
+        for (int i = peptide.length() - 1; i >= 0; i--) {
+            codons[i] = state.codon;
+            state = state.parent;
+        }
+        return codons;
+    }
+
+    private List<BeamState> extendBeam(List<BeamState> beam, List<String> possible_codons, int tail_length,
+                                       int width, boolean check_local_gc) throws Exception {
+        // keyed by the bases that still affect later checks; equal keys keep only the better design
+        Map<String, BeamState> best_by_tail = new LinkedHashMap<>();
+        int checks = 0;
+        int rejected = 0;
+        long checked_bases = 0;
+        long scored_bases = 0;
+        for (BeamState state : beam) {
+            for (String codon : possible_codons) {
+                String extended = state.tail + codon;
+                int context_start = Math.max(0, state.tail.length() - (seqCheck.getMaxSiteLength() - 1));
+                checks++;
+                checked_bases += extended.length() - context_start;
+                if (!seqCheck.run(extended, context_start, extended.length())) {
+                    rejected++;
+                    continue;
+                }
+                if (check_local_gc && local_gc_window > 0) {
+                    SequenceStats local = new SequenceStats(extended);
+                    if (!local.gcWindowsWithin(local_gc_window, local_gc_min, local_gc_max, state.tail.length())) {
+                        continue;
+                    }
+                }
+
+                // the tail covers the longest hairpin, so this is the exact change for the whole design
+                double hp = state.hairpin + hairpin.appendDelta(extended, state.tail.length());
+                scored_bases += codon.length();
+                int gc = state.gc;
+                for (int j = 0; j < codon.length(); j++) {
+                    char nuc = codon.charAt(j);
+                    if (nuc == 'G' || nuc == 'C') {
+                        gc++;
+                    }
+                }
+                int length = state.length + codon.length();
+                String tail = extended.substring(Math.max(0, extended.length() - tail_length));
+
+                BeamState child = new BeamState(state, codon, tail, gc, length, hp);
+                BeamState existing = best_by_tail.get(tail);
+                if (existing == null || child.score() < existing.score()) {
+                    best_by_tail.put(tail, child);
+                }
+            }
+        }
+        // recorded once per amino acid, as the sampling engine records once per window
+        SITE_CHECKS.add(checks);
+        SITE_REJECTED.add(rejected);
+        SITE_BASES.add(checked_bases);
+        HAIRPIN_BASES.add(scored_bases);
+
+        List<BeamState> next = new ArrayList<>(best_by_tail.values());
+        Collections.sort(next, new Comparator<BeamState>() {
+            @Override
+            public int compare(BeamState s1, BeamState s2) {
+                return Double.compare(s1.score(), s2.score());
+            }
+        });
+        if (next.size() > width) {
+            next = new ArrayList<>(next.subList(0, width));
+        }
+        return next;
+    }
+
+    /**
+     * A partial design in the beam, linked back to the design it extends
+     */
+    private static class BeamState {
+        private final BeamState parent;
+        private final String codon;
+        private final String tail;
+        private final int gc;
+        private final int length;
+        private final double hairpin;
+
+        BeamState(BeamState parent, String codon, String tail, int gc, int length, double hairpin) {
+            this.parent = parent;
+            this.codon = codon;
+            this.tail = tail;
+            this.gc = gc;
+            this.length = length;
+            this.hairpin = hairpin;
+        }
+
+        double score() {
+            double gc_excess = Math.max(0, Math.max(gc - 0.60 * length, 0.40 * length - gc));
+            return hairpin + gc_excess;
+        }
+    }
 }
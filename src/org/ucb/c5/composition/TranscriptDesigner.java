@@ -1,5 +1,6 @@
 package org.ucb.c5.composition;
 
+import org.ucb.c5.composition.model.Host;
 import org.ucb.c5.composition.model.RBSOption;
 import org.ucb.c5.composition.model.Transcript;
 import java.util.HashMap;
@@ -20,26 +21,106 @@ public class TranscriptDesigner {
     private SequenceChooser seqChooser;
     private RBSChooser rbsChooser;
     private SequenceChecker seqCheck;
+    private DesignCache cache = new DesignCache(DEFAULT_CACHE_SIZE);
+
+    //designs kept in memory unless another cache is set
+    private static final int DEFAULT_CACHE_SIZE = 256;
 
     public void initiate() throws Exception {
+        initiate(DesignContext.getDefault());
+    }
+
+    /**
+     * Initiates the designer and its choosers on a design context, which
+     * they share rather than each loading their own tables
+     *
+     * @param context the loaded design data
+     * @throws Exception
+     */
+    public void initiate(DesignContext context) throws Exception {
         //Initialize the RBSChooser
         rbsChooser = new RBSChooser();
         seqChooser = new SequenceChooser();
-        seqCheck = new SequenceChecker();
+        seqCheck = context.getSequenceChecker();
+
+        rbsChooser.initiate(context);
+        seqChooser.initiate(context);
+
+    }
 
-        rbsChooser.initiate();
-        seqChooser.initiate();
-        seqCheck.initiate();
+    /**
+     * Sets the cache designs are looked up in before being computed.  By
+     * default a small in-memory cache is used; a cache can be shared by
+     * several designers, even ones with different RBS libraries.
+     *
+     * @param cache the cache to use, or null to always recompute
+     */
+    public void setCache(DesignCache cache) {
+        this.cache = cache;
+    }
 
+    public DesignCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the SequenceChooser, so its settings can be changed
+     */
+    public SequenceChooser getSequenceChooser() {
+        return seqChooser;
     }
 
     public Transcript run(String peptide, Set<RBSOption> ignores) throws Exception {
+        return run(peptide, ignores, null);
+    }
+
+    /**
+     * Designs a transcript for a protein, choosing codons according to the
+     * codon usage of the host
+     *
+     * @param peptide the protein sequence
+     * @param ignores RBSs that should not be chosen
+     * @param host the organism the design is for, or null to sample codons uniformly
+     * @return the designed transcript
+     * @throws Exception
+     */
+    public Transcript run(String peptide, Set<RBSOption> ignores, Host host) throws Exception {
 
         if (peptide == "") {
             throw new IllegalArgumentException();
         }
+
+        DesignEvents.TranscriptDesign event = new DesignEvents.TranscriptDesign();
+        event.begin();
+        Transcript out = design(peptide, ignores, host, event);
+        event.end();
+        if (event.shouldCommit()) {
+            event.host = String.valueOf(host);
+            event.peptideLength = peptide.length();
+            event.ignored = ignores.size();
+            event.rbs = out.getRbs().getName();
+            event.commit();
+        }
+        return out;
+    }
+
+    private Transcript design(String peptide, Set<RBSOption> ignores, Host host, DesignEvents.TranscriptDesign event)
+            throws Exception {
+
+        //Reuse an earlier design of the same inputs
+        String key = null;
+        if (cache != null) {
+            key = DesignCache.key(peptide, host, seqChooser.getParameters(), rbsChooser.getLibraryFingerprint(),
+                    ignores);
+            Transcript cached = cache.get(key, peptide, rbsChooser);
+            if (cached != null) {
+                event.cached = true;
+                return cached;
+            }
+        }
+
         //Choose best codon for each amino acid
-        String[] codons = seqChooser.run(peptide.toUpperCase());
+        String[] codons = seqChooser.run(peptide.toUpperCase(), host);
 
         
         //Choose an RBS
@@ -53,6 +134,9 @@ public class TranscriptDesigner {
 
         //Construct the Transcript and return it
         Transcript out = new Transcript(selectedRBS, peptide, codons);
+        if (cache != null) {
+            cache.put(key, out);
+        }
         return out;
     }
 
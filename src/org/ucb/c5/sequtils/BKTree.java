@@ -0,0 +1,228 @@
+package org.ucb.c5.sequtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Burkhard-Keller tree indexing items by a String key under edit distance
+ *
+ * Searches return items in increasing edit distance from a query, one
+ * distance at a time, and only compute distances for the parts of the tree
+ * that the triangle inequality cannot rule out.  A caller that stops asking
+ * for more distances once nothing further can help never looks at the rest
+ * of the library.
+ *
+ * Items with equal distance are returned in the order they were added.
+ */
+public class BKTree<T> {
+
+    private final CalcEditDistance distance;
+    private Node<T> root;
+    private int size;
+
+    public BKTree(CalcEditDistance distance) {
+        this.distance = distance;
+    }
+
+    /**
+     * Adds an item under a key
+     *
+     * @param key the String the item is indexed by
+     * @param item the item returned by searches
+     * @throws Exception
+     */
+    public void add(String key, T item) throws Exception {
+        Entry<T> entry = new Entry<>(item, size++);
+        if (root == null) {
+            root = new Node<>(key);
+            root.entries.add(entry);
+            return;
+        }
+        Node<T> node = root;
+        while (true) {
+            int d = distance.run(key, node.key);
+            if (d == 0) {
+                node.entries.add(entry);
+                return;
+            }
+            Node<T> child = node.child(d);
+            if (child == null) {
+                child = new Node<>(key);
+                child.entries.add(entry);
+                node.children.add(child);
+                node.childDistances.add(d);
+                return;
+            }
+            node = child;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Starts a search for the items nearest to a query
+     *
+     * @param query the key to measure distances from
+     * @return a search yielding items one distance at a time
+     */
+    public Search search(String query) {
+        return new Search(query);
+    }
+
+    /**
+     * An in-progress search, expanding the tree only as far as needed to
+     * produce the next distance
+     */
+    public class Search {
+
+        private final String query;
+        private final PriorityQueue<Pending<T>> subtrees = new PriorityQueue<>();
+        private final PriorityQueue<Found<T>> found = new PriorityQueue<>();
+        private int level = -1;
+
+        private Search(String query) {
+            this.query = query;
+            if (root != null) {
+                subtrees.add(new Pending<>(root, 0));
+            }
+        }
+
+        /**
+         * @return the distance of the items last returned by nextLevel
+         */
+        public int level() {
+            return level;
+        }
+
+        /**
+         * @return the lowest distance any item not yet returned could have,
+         * or Integer.MAX_VALUE if every item has been returned
+         */
+        public int lowerBound() {
+            int bound = Integer.MAX_VALUE;
+            if (!subtrees.isEmpty()) {
+                bound = subtrees.peek().bound;
+            }
+            if (!found.isEmpty()) {
+                bound = Math.min(bound, found.peek().distance);
+            }
+            return bound;
+        }
+
+        /**
+         * Returns every item at the next smallest distance from the query
+         *
+         * @return the items in the order they were added, or null when none remain
+         * @throws Exception
+         */
+        public List<T> nextLevel() throws Exception {
+            while (true) {
+                //the nearest found items are final once no unexplored subtree could hold anything as near
+                if (!found.isEmpty() && (subtrees.isEmpty() || found.peek().distance < subtrees.peek().bound)) {
+                    level = found.peek().distance;
+                    List<T> out = new ArrayList<>();
+                    while (!found.isEmpty() && found.peek().distance == level) {
+                        out.add(found.poll().entry.item);
+                    }
+                    return out;
+                }
+                if (subtrees.isEmpty()) {
+                    return null;
+                }
+
+                Pending<T> pending = subtrees.poll();
+                Node<T> node = pending.node;
+                int d = distance.run(query, node.key);
+                for (Entry<T> entry : node.entries) {
+                    found.add(new Found<>(entry, d));
+                }
+                for (int i = 0; i < node.children.size(); i++) {
+                    int bound = Math.max(pending.bound, Math.abs(d - node.childDistances.get(i)));
+                    subtrees.add(new Pending<>(node.children.get(i), bound));
+                }
+            }
+        }
+    }
+
+    private static class Node<T> {
+        private final String key;
+        private final List<Entry<T>> entries = new ArrayList<>();
+        private final List<Node<T>> children = new ArrayList<>();
+        private final List<Integer> childDistances = new ArrayList<>();
+
+        Node(String key) {
+            this.key = key;
+        }
+
+        Node<T> child(int d) {
+            for (int i = 0; i < children.size(); i++) {
+                if (childDistances.get(i) == d) {
+                    return children.get(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static class Entry<T> {
+        private final T item;
+        private final int order;
+
+        Entry(T item, int order) {
+            this.item = item;
+            this.order = order;
+        }
+    }
+
+    private static class Pending<T> implements Comparable<Pending<T>> {
+        private final Node<T> node;
+        private final int bound;
+
+        Pending(Node<T> node, int bound) {
+            this.node = node;
+            this.bound = bound;
+        }
+
+        @Override
+        public int compareTo(Pending<T> other) {
+            return Integer.compare(bound, other.bound);
+        }
+    }
+
+    private static class Found<T> implements Comparable<Found<T>> {
+        private final Entry<T> entry;
+        private final int distance;
+
+        Found(Entry<T> entry, int distance) {
+            this.entry = entry;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Found<T> other) {
+            if (distance != other.distance) {
+                return Integer.compare(distance, other.distance);
+            }
+            return Integer.compare(entry.order, other.entry.order);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        CalcEditDistance ced = new CalcEditDistance();
+        ced.initiate();
+        BKTree<String> tree = new BKTree<>(ced);
+        String[] words = {"MSKGEE", "MKKLLP", "MSKGEA", "MTEYKL", "MSRGEE", "MAKEGL"};
+        for (String word : words) {
+            tree.add(word, word);
+        }
+
+        BKTree<String>.Search search = tree.search("MSKGEE");
+        List<String> level;
+        while ((level = search.nextLevel()) != null) {
+            System.out.println(search.level() + ": " + level);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.ucb.c5.sequtils;
+
+import java.util.Random;
+
+/**
+ * Word-parallel engine for the HairpinCounter score, for long sequences
+ *
+ * Bases are packed 2 bits each with the codes of Translate (A=0, C=1,
+ * G=2, T=3, so the complement of a base is its bitwise NOT), and hairpins are
+ * weighted with HairpinCounter's own table.  For each spacer length, the arms of 32
+ * consecutive candidate hairpins are compared at once: XOR-ing the packed
+ * forward arm with the packed facing arm gives 11 in every 2-bit field where
+ * the bases pair.  Only the few hairpins with at least three paired bases are
+ * then scored one at a time, in the same order as the scalar loop, so the
+ * score is identical to HairpinCounter's.
+ *
+ * Only sequences of A, C, G and T (in either case) can be scored; the
+ * HairpinCounter falls back to its scalar loop for anything else.
+ */
+public class BitParallelHairpinCounter {
+
+    private static final long LOW_BITS = 0x5555555555555555L;
+
+    /**
+     * Calculates the HairpinCounter score of a sequence
+     *
+     * @param seq the input sequence of A, C, G and T
+     * @return a deltaG of stabilization of haipins
+     * @throws IllegalArgumentException if seq contains any other base
+     */
+    public double run(CharSequence seq) {
+        long[] packed = pack(seq, 0, seq.length());
+        if (packed == null) {
+            throw new IllegalArgumentException("sequence contains bases other than A, C, G and T");
+        }
+        return score(packed, seq.length());
+    }
+
+    /**
+     * Packs a range of a sequence 32 bases to a long, with two words of
+     * padding so every 32-base read stays in bounds
+     *
+     * @return the packed bases, or null if any base is not A, C, G or T
+     */
+    static long[] pack(CharSequence seq, int start, int end) {
+        int len = end - start;
+        long[] packed = new long[((len + 31) >>> 5) + 2];
+        for (int i = 0; i < len; i++) {
+            char c = seq.charAt(start + i);
+            int code = Translate.baseCode(c);
+            if (code < 0) {
+                return null;
+            }
+            packed[i >>> 5] |= (long) code << ((i & 31) << 1);
+        }
+        return packed;
+    }
+
+    /**
+     * Scores a packed sequence of the given length
+     */
+    static double score(long[] packed, int len) {
+        double out = 0.0;
+        for (int spaces = 4; spaces <= 9; spaces++) {
+            int width = spaces + 12;
+            int limit = len - width;  //hairpins start at i < limit, as in the scalar loop
+
+            for (int block = 0; block < limit; block += 32) {
+                int count = Math.min(32, limit - block);
+                long valid = count == 32 ? LOW_BITS : LOW_BITS & ((1L << (count << 1)) - 1);
+
+                //bit 2k of pairedN is set if hairpin block+k pairs at least N bases from the loop out
+                int suffixStart = block + width - 6;
+                long paired1 = valid & pairs(packed, suffixStart, block + 5);
+                long paired2 = paired1 & pairs(packed, suffixStart + 1, block + 4);
+                long paired3 = paired2 & pairs(packed, suffixStart + 2, block + 3);
+                if (paired3 == 0) {
+                    continue;
+                }
+                long paired4 = paired3 & pairs(packed, suffixStart + 3, block + 2);
+                long paired5 = paired4 & pairs(packed, suffixStart + 4, block + 1);
+                long paired6 = paired5 & pairs(packed, suffixStart + 5, block);
+
+                //score the survivors in increasing order of start
+                long remaining = paired3;
+                while (remaining != 0) {
+                    int bit = Long.numberOfTrailingZeros(remaining);
+                    remaining &= remaining - 1;
+                    int start = block + (bit >>> 1);
+                    int numPaired = 3 + (int) ((paired4 >>> bit) & 1)
+                            + (int) ((paired5 >>> bit) & 1) + (int) ((paired6 >>> bit) & 1);
+
+                    //as in HairpinCounter, the last paired base is not counted
+                    int hbonds = 0;
+                    for (int i = 0; i < numPaired - 1; i++) {
+                        int code = baseAt(packed, start + 5 - i);
+                        hbonds += ((code ^ (code >>> 1)) & 1) == 1 ? 3 : 2;
+                    }
+                    out += HairpinCounter.HAIRPIN_WEIGHT[hbonds];
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * @return a bit in each low bit of 32 2-bit fields, set where the base at
+     * forward + k pairs with the base at facing + k
+     */
+    private static long pairs(long[] packed, int forward, int facing) {
+        long x = read32(packed, forward) ^ read32(packed, facing);
+        return x & (x >>> 1) & LOW_BITS;
+    }
+
+    private static long read32(long[] packed, int pos) {
+        int word = pos >>> 5;
+        int shift = (pos & 31) << 1;
+        if (shift == 0) {
+            return packed[word];
+        }
+        return (packed[word] >>> shift) | (packed[word + 1] << (64 - shift));
+    }
+
+    private static int baseAt(long[] packed, int pos) {
+        return (int) (packed[pos >>> 5] >>> ((pos & 31) << 1)) & 3;
+    }
+
+    /**
+     * Times the scalar and word-parallel engines on random multi-kilobase
+     * sequences
+     */
+    public static void main(String[] args) throws Exception {
+        HairpinCounter scalar = new HairpinCounter();
+        scalar.initiate();
+        BitParallelHairpinCounter parallel = new BitParallelHairpinCounter();
+
+        Random rand = new Random(100);
+        int[] lengths = {1000, 5000, 20000, 100000};
+        for (int len : lengths) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < len; i++) {
+                sb.append("ACGT".charAt(rand.nextInt(4)));
+            }
+            String seq = sb.toString();
+
+            int reps = Math.max(20, 2000000 / len);
+            double expected = scalar.runScalar(seq, 0, len);
+            double actual = parallel.run(seq);
+            if (expected != actual) {
+                throw new IllegalStateException("scores differ at " + len + ": " + expected + " vs " + actual);
+            }
+
+            long scalarNs = time(scalar, null, seq, reps);
+            long parallelNs = time(null, parallel, seq, reps);
+            System.out.printf("%7d bp  scalar %9.1f us  bit-parallel %8.1f us  speedup %.1fx%n",
+                    len, scalarNs / 1000.0, parallelNs / 1000.0, (double) scalarNs / parallelNs);
+        }
+    }
+
+    private static long time(HairpinCounter scalar, BitParallelHairpinCounter parallel, String seq, int reps) {
+        double sink = 0;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < reps; r++) {
+                sink += scalar != null ? scalar.runScalar(seq, 0, seq.length()) : parallel.run(seq);
+            }
+            best = Math.min(best, (System.nanoTime() - start) / reps);
+        }
+        if (sink < 0) {
+            System.out.println(sink);
+        }
+        return best;
+    }
+}
@@ -14,24 +14,129 @@ import java.util.Map;
 import java.util.Set;
 
 /**
+ * Computes the edit (Levenshtein) distance between two Strings
+ *
+ * Uses the bit-vector algorithm of Myers (1999) in Hyyro's formulation for
+ * global distance: the pattern's column of the distance matrix is held as
+ * bit-vectors of +1/-1 vertical differences, 64 rows to a long, and each text
+ * character advances it with a handful of word operations.  Scratch arrays are
+ * kept per thread, so no call allocates once warmed up.  Strings with
+ * characters outside ASCII fall back to the full matrix.
  *
  * @author J. Christopher Anderson
  */
 public class CalcEditDistance {
     
+    private static final int ALPHABET = 128;
+    
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+    
     public void initiate() throws Exception {
         
     }
     
     /**
-     * Compute edit distance between two Strings using the Smith-Waterman
-     * Algorithm
+     * Compute edit distance between two Strings
      *
      * @param s1
      * @param s2
      * @return
      */
     public int run(String s1, String s2) throws Exception {
+        return runBounded(s1, s2, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Compute edit distance between two Strings, giving up as soon as it is
+     * certain to exceed maxDistance
+     *
+     * @param s1
+     * @param s2
+     * @param maxDistance the largest distance of interest
+     * @return the distance, or maxDistance + 1 if it is larger than maxDistance
+     */
+    public int runBounded(String s1, String s2, int maxDistance) {
+        //The distance is at least the difference in length
+        if (Math.abs(s1.length() - s2.length()) > maxDistance) {
+            return maxDistance + 1;
+        }
+        if (!isAscii(s1) || !isAscii(s2)) {
+            return bound(runMatrix(s1, s2), maxDistance);
+        }
+        
+        //Use the shorter String as the pattern so fewer words are needed
+        String pattern = s1.length() <= s2.length() ? s1 : s2;
+        String text = pattern == s1 ? s2 : s1;
+        Scratch work = scratch.get();
+        work.setPattern(pattern);
+        try {
+            return work.distance(text, maxDistance);
+        } finally {
+            work.clearPattern(pattern);
+        }
+    }
+    
+    /**
+     * Compute the edit distance from one query to each of many targets,
+     * building the query's bit-vectors only once
+     *
+     * @param query
+     * @param targets
+     * @param out receives the distance to targets[i] at out[i]
+     */
+    public void runBatch(String query, String[] targets, int[] out) {
+        runBatch(query, targets, Integer.MAX_VALUE, out);
+    }
+    
+    /**
+     * Compute the edit distance from one query to each of many targets,
+     * giving up on each target as soon as it is certain to exceed maxDistance
+     *
+     * @param query
+     * @param targets
+     * @param maxDistance the largest distance of interest
+     * @param out receives the distance to targets[i] at out[i], or
+     * maxDistance + 1 where it is larger than maxDistance
+     */
+    public void runBatch(String query, String[] targets, int maxDistance, int[] out) {
+        if (!isAscii(query)) {
+            for (int i = 0; i < targets.length; i++) {
+                out[i] = bound(runMatrix(query, targets[i]), maxDistance);
+            }
+            return;
+        }
+        Scratch work = scratch.get();
+        work.setPattern(query);
+        try {
+            for (int i = 0; i < targets.length; i++) {
+                String target = targets[i];
+                if (Math.abs(query.length() - target.length()) > maxDistance) {
+                    out[i] = maxDistance + 1;
+                } else if (!isAscii(target)) {
+                    out[i] = bound(runMatrix(query, target), maxDistance);
+                } else {
+                    out[i] = work.distance(target, maxDistance);
+                }
+            }
+        } finally {
+            work.clearPattern(query);
+        }
+    }
+    
+    /**
+     * Compute edit distance between two Strings by filling in the whole
+     * dynamic programming matrix
+     *
+     * @param s1
+     * @param s2
+     * @return
+     */
+    int runMatrix(String s1, String s2) {
         int s1len = s1.length();
         int s2len = s2.length();
 
@@ -54,6 +159,104 @@ public class CalcEditDistance {
         return dist[s1len][s2len];
     }
     
+    private static int bound(int distance, int maxDistance) {
+        return distance > maxDistance ? maxDistance + 1 : distance;
+    }
+    
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= ALPHABET) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Per-thread bit-vectors for one pattern at a time
+     */
+    private static class Scratch {
+        //peq[c * words + w] has bit i set if pattern.charAt(64 * w + i) == c
+        private long[] peq = new long[ALPHABET];
+        private long[] pv = new long[1];
+        private long[] mv = new long[1];
+        private int words;
+        private int length;
+        
+        void setPattern(String pattern) {
+            length = pattern.length();
+            words = Math.max(1, (length + 63) >>> 6);
+            if (pv.length < words) {
+                peq = new long[ALPHABET * words];
+                pv = new long[words];
+                mv = new long[words];
+            }
+            for (int i = 0; i < length; i++) {
+                peq[pattern.charAt(i) * words + (i >>> 6)] |= 1L << (i & 63);
+            }
+        }
+        
+        void clearPattern(String pattern) {
+            for (int i = 0; i < pattern.length(); i++) {
+                peq[pattern.charAt(i) * words + (i >>> 6)] = 0;
+            }
+        }
+        
+        int distance(String text, int maxDistance) {
+            int n = text.length();
+            if (length == 0) {
+                return bound(n, maxDistance);
+            }
+            for (int w = 0; w < words; w++) {
+                pv[w] = -1L;
+                mv[w] = 0;
+            }
+            int last = words - 1;
+            long lastBit = 1L << ((length - 1) & 63);
+            int score = length;
+            
+            for (int j = 0; j < n; j++) {
+                int offset = text.charAt(j) * words;
+                
+                //the top row of the matrix grows by one per text character
+                int hin = 1;
+                for (int w = 0; w < words; w++) {
+                    long eq = peq[offset + w];
+                    long p = pv[w];
+                    long m = mv[w];
+                    long xv = eq | m;
+                    if (hin < 0) {
+                        eq |= 1L;
+                    }
+                    long xh = (((eq & p) + p) ^ p) | eq;
+                    long ph = m | ~(xh | p);
+                    long mh = p & xh;
+                    
+                    long high = w == last ? lastBit : Long.MIN_VALUE;
+                    int hout = (ph & high) != 0 ? 1 : ((mh & high) != 0 ? -1 : 0);
+                    
+                    ph <<= 1;
+                    mh <<= 1;
+                    if (hin < 0) {
+                        mh |= 1L;
+                    } else if (hin > 0) {
+                        ph |= 1L;
+                    }
+                    pv[w] = mh | ~(xv | ph);
+                    mv[w] = ph & xv;
+                    hin = hout;
+                }
+                score += hin;
+                
+                //each remaining text character can lower the score by at most one
+                if (score - (n - 1 - j) > maxDistance) {
+                    return maxDistance + 1;
+                }
+            }
+            return bound(score, maxDistance);
+        }
+    }
+    
     public static void main(String[] args) throws Exception {
         CalcEditDistance func = new CalcEditDistance();
         func.initiate();
@@ -1,22 +1,56 @@
 package org.ucb.c5.sequtils;
 
-import org.ucb.c5.sequtils.RevComp;
-
 /**
  * Calculates local secondary structure present in a dna sequence
  * 
  * Spacing between arms of the hairpin can be anywhere from 4 to 9, and are
  * considered to be of equal weight
  * 
+ * The reverse strand is read through a complement table rather than built,
+ * and the 2^hbonds weights are precomputed, so scoring allocates nothing.
+ * Long sequences of plain A/C/G/T are handed to BitParallelHairpinCounter,
+ * which gives the same score.
+ * 
  * @author J. Christopher Anderson
  */
 public class HairpinCounter {
     
-    private RevComp revcomp;
+    /**
+     * Length of the longest stretch of sequence that a single scored hairpin
+     * spans (two 6-base arms and a 9-base spacer)
+     */
+    public static final int MAX_HAIRPIN_LENGTH = 21;
+    
+    //Sequences at least this long are scored by the bit-parallel engine
+    private static final int BIT_PARALLEL_MIN_LENGTH = 256;
+    
+    //Upper-cased complement of each character, matching RevComp
+    private static final char[] COMPLEMENT = new char[128];
+    
+    //Hydrogen bonds contributed by each (upper-case) base
+    private static final int[] HBONDS = new int[128];
+    
+    //Score of a hairpin with h hbonds, 2^h - 1; at most 5 bases of 3 hbonds pair.
+    //BitParallelHairpinCounter scores with this table too, so both engines always agree
+    static final double[] HAIRPIN_WEIGHT = new double[16];
+    
+    static {
+        String from = "ACGTBDHKNRSVWYM";
+        String to   = "TGCAVHDMNYSBWRK";
+        for (int i = 0; i < from.length(); i++) {
+            COMPLEMENT[from.charAt(i)] = to.charAt(i);
+            COMPLEMENT[Character.toLowerCase(from.charAt(i))] = to.charAt(i);
+        }
+        HBONDS['C'] = 3;
+        HBONDS['G'] = 3;
+        HBONDS['A'] = 2;
+        HBONDS['T'] = 2;
+        for (int h = 0; h < HAIRPIN_WEIGHT.length; h++) {
+            HAIRPIN_WEIGHT[h] = Math.pow(2, h) - 1;
+        }
+    }
     
     public void initiate() throws Exception {
-        revcomp = new RevComp();
-        revcomp.initiate();
     }
     
     /**
@@ -30,43 +64,92 @@ public class HairpinCounter {
      * @throws Exception 
      */
     public double run(String seq) throws Exception {
-        seq = seq.toUpperCase();
-        char[] rcSeq = revcomp.run(seq).toCharArray();
-        char[] charSeq = seq.toCharArray();
-        int len = seq.length();
+        return run(seq, 0, seq.length());
+    }
+    
+    /**
+     * Scores a range of a sequence as though it were a sequence on its own
+     * 
+     * @param seq  The input sequence, in either case
+     * @param start first index scored, inclusive
+     * @param end last index scored, exclusive
+     * @return  a deltaG of stabilization of haipins within the range
+     */
+    public double run(CharSequence seq, int start, int end) {
+        double out;
+        long[] packed = end - start >= BIT_PARALLEL_MIN_LENGTH ? BitParallelHairpinCounter.pack(seq, start, end) : null;
+        if (packed != null) {
+            out = BitParallelHairpinCounter.score(packed, end - start);
+        } else {
+            out = runScalar(seq, start, end);
+        }
+        return out;
+    }
+    
+    /**
+     * Scores a range with the scalar loop, whatever its length
+     */
+    double runScalar(CharSequence seq, int start, int end) {
         double out = 0.0;
         
         //For each spacer length between 4 and 9
         for(int spaces = 4; spaces <= 9; spaces++) {
             
             //scan through the sequence and count hbonds of each potential hairpin
-            for(int i=0; i<len-spaces-12; i++) {
-                int hbonds = countHbonds(charSeq, i, i+spaces+12, rcSeq, len);
-                out+= Math.pow(2, hbonds) - 1;
+            for(int i=start; i<end-spaces-12; i++) {
+                int hbonds = countHbonds(seq, i, i+spaces+12);
+                out+= HAIRPIN_WEIGHT[hbonds];
             }
         }
         
         return out;
     }
     
+    /**
+     * Calculates how much the score of a sequence changes when bases are
+     * appended to it.  Only hairpins reaching into the new bases are scored,
+     * so appending a codon costs the same however long the sequence is.
+     * 
+     * run(seq) == run(seq.subSequence(0, oldLength)) + appendDelta(seq, oldLength)
+     * 
+     * @param seq  The sequence after appending
+     * @param oldLength the length of the sequence before appending
+     * @return  the change in score
+     */
+    public double appendDelta(CharSequence seq, int oldLength) {
+        int len = seq.length();
+        double out = 0.0;
+        for(int spaces = 4; spaces <= 9; spaces++) {
+            int width = spaces + 12;
+            
+            //hairpins not counted in the shorter sequence are those ending at or after oldLength
+            for(int i=Math.max(0, oldLength-width); i<len-width; i++) {
+                int hbonds = countHbonds(seq, i, i+width);
+                out+= HAIRPIN_WEIGHT[hbonds];
+            }
+        }
+        return out;
+    }
+    
     /**
      * Counts the number of hbonds participating in hairpins
      * 
+     * The reverse complement base facing seq[suffixStart + distFromEnd] is
+     * the complement of seq[startInc + 5 - distFromEnd]
+     * 
      * @param seq
      * @param startInc
      * @param endExcl
-     * @param revC
-     * @param len
      * @return 
      */
-    private int countHbonds(char[] seq, int startInc, int endExcl, char[] revC, int len) {
+    private int countHbonds(CharSequence seq, int startInc, int endExcl) {
         int suffixStart = endExcl - 6;
         
         //See how many out of the six being examined match
         int matchlength = 0;
         for(int distFromEnd=0; distFromEnd<6; distFromEnd++) {
-            char revChar = revC[len - 1 - startInc - 5 + distFromEnd];
-            char forChar = seq[suffixStart + distFromEnd];
+            char revChar = complement(seq.charAt(startInc + 5 - distFromEnd));
+            char forChar = upper(seq.charAt(suffixStart + distFromEnd));
             if (forChar == revChar) {
                 matchlength = distFromEnd;
             } else {
@@ -82,19 +165,21 @@ public class HairpinCounter {
         //If 3 or more matches, score based on GC/AT content
         int hbonds = 0;
         for(int i=0; i<matchlength; i++) {
-            // compute metrics on revComplement(prefix).charAt(i); get that char using indexing as above
-            char achar = revC[len - 1 - startInc - 5 + i];
-            if(achar == 'C' || achar == 'G') {
-                hbonds+=3;
-            }
-            if(achar == 'A' || achar == 'T') {
-                hbonds+=2;
-            }
+            hbonds += HBONDS[complement(seq.charAt(startInc + 5 - i))];
         }
 
         return hbonds;
     }
     
+    private static char complement(char c) {
+        //Unknown characters complement to 0, which never equals an upper-cased base
+        return c < 128 ? COMPLEMENT[c] : 0;
+    }
+    
+    private static char upper(char c) {
+        return (c >= 'a' && c <= 'z') ? (char) (c - 32) : c;
+    }
+    
     public static void main(String[] args) throws Exception {
         HairpinCounter hc = new HairpinCounter();
         hc.initiate();
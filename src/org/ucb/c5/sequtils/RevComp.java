@@ -1,47 +1,30 @@
 package org.ucb.c5.sequtils;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Calculates the reverse complement of a DNA sequence
  *
+ * Complements are looked up in a table indexed by character, preserving the
+ * case of each base and complementing IUPAC codes.  Besides Strings, ranges
+ * of char[] and byte[] buffers can be reverse complemented into a caller's
+ * buffer or in place, which allocates nothing.
+ *
  * @author J. Christopher Anderson
  */
 public class RevComp {
-    Map<Character, String> baseToRC;
+    
+    //Complement of each character, or 0 if it is not a DNA or IUPAC base
+    private static final char[] COMPLEMENT = new char[128];
+    
+    static {
+        String from = "ATCGBDHKMNRSVWY";
+        String to   = "TAGCVHDMKNYSBWR";
+        for (int i = 0; i < from.length(); i++) {
+            COMPLEMENT[from.charAt(i)] = to.charAt(i);
+            COMPLEMENT[Character.toLowerCase(from.charAt(i))] = Character.toLowerCase(to.charAt(i));
+        }
+    }
 
     public void initiate() {
-        baseToRC = new HashMap<>();
-        
-        baseToRC.put('A', "T");
-        baseToRC.put('T', "A");
-        baseToRC.put('C', "G");
-        baseToRC.put('G', "C");
-        baseToRC.put('a', "t");
-        baseToRC.put('t', "a");
-        baseToRC.put('c', "g");
-        baseToRC.put('g', "c");
-        baseToRC.put('B', "V");
-        baseToRC.put('D', "H");
-        baseToRC.put('H', "D");
-        baseToRC.put('K', "M");
-        baseToRC.put('N', "N");
-        baseToRC.put('R', "Y");
-        baseToRC.put('S', "S");
-        baseToRC.put('V', "B");
-        baseToRC.put('W', "W");
-        baseToRC.put('Y', "R");
-        baseToRC.put('b', "v");
-        baseToRC.put('d', "h");
-        baseToRC.put('h', "d");
-        baseToRC.put('k', "m");
-        baseToRC.put('n', "n");
-        baseToRC.put('r', "y");
-        baseToRC.put('s', "s");
-        baseToRC.put('v', "b");
-        baseToRC.put('w', "w");
-        baseToRC.put('y', "r");
     }
     
     /**
@@ -52,13 +35,98 @@ public class RevComp {
      * @return the reverse complement of dna
      */
     public String run(String dna) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = dna.length() - 1; i >= 0; i--) {
-            char achar = dna.charAt(i);
-            sb.append(baseToRC.get(achar));
+        int len = dna.length();
+        char[] out = new char[len];
+        for (int i = 0; i < len; i++) {
+            out[len - 1 - i] = complement(dna.charAt(i));
+        }
+        return new String(out);
+    }
+    
+    /**
+     * Writes the reverse complement of src[start, end) to dst starting at
+     * dstStart.  src and dst must not overlap; use runInPlace for that.
+     *
+     * @param src the DNA sequence
+     * @param start first index of src, inclusive
+     * @param end last index of src, exclusive
+     * @param dst receives the reverse complement
+     * @param dstStart where in dst to write the first base
+     */
+    public void run(char[] src, int start, int end, char[] dst, int dstStart) {
+        int last = dstStart + end - start - 1;
+        for (int i = start; i < end; i++) {
+            dst[last - (i - start)] = complement(src[i]);
+        }
+    }
+    
+    /**
+     * Writes the reverse complement of ASCII src[start, end) to dst starting
+     * at dstStart.  src and dst must not overlap; use runInPlace for that.
+     *
+     * @param src the DNA sequence
+     * @param start first index of src, inclusive
+     * @param end last index of src, exclusive
+     * @param dst receives the reverse complement
+     * @param dstStart where in dst to write the first base
+     */
+    public void run(byte[] src, int start, int end, byte[] dst, int dstStart) {
+        int last = dstStart + end - start - 1;
+        for (int i = start; i < end; i++) {
+            dst[last - (i - start)] = (byte) complement((char) (src[i] & 0xFF));
         }
-
-        return sb.toString();
+    }
+    
+    /**
+     * Reverse complements buffer[start, end) in place
+     *
+     * @param buffer the DNA sequence
+     * @param start first index, inclusive
+     * @param end last index, exclusive
+     */
+    public void runInPlace(char[] buffer, int start, int end) {
+        int i = start;
+        int j = end - 1;
+        while (i < j) {
+            char left = complement(buffer[i]);
+            buffer[i++] = complement(buffer[j]);
+            buffer[j--] = left;
+        }
+        if (i == j) {
+            buffer[i] = complement(buffer[i]);
+        }
+    }
+    
+    /**
+     * Reverse complements ASCII buffer[start, end) in place
+     *
+     * @param buffer the DNA sequence
+     * @param start first index, inclusive
+     * @param end last index, exclusive
+     */
+    public void runInPlace(byte[] buffer, int start, int end) {
+        int i = start;
+        int j = end - 1;
+        while (i < j) {
+            byte left = (byte) complement((char) (buffer[i] & 0xFF));
+            buffer[i++] = (byte) complement((char) (buffer[j] & 0xFF));
+            buffer[j--] = left;
+        }
+        if (i == j) {
+            buffer[i] = (byte) complement((char) (buffer[i] & 0xFF));
+        }
+    }
+    
+    /**
+     * @param base a DNA or IUPAC base in either case
+     * @return the complementary base in the same case
+     */
+    public static char complement(char base) {
+        char out = base < 128 ? COMPLEMENT[base] : 0;
+        if (out == 0) {
+            throw new IllegalArgumentException("not a DNA or IUPAC base: " + base);
+        }
+        return out;
     }
     
     public static void main(String[] args) {
@@ -67,5 +135,9 @@ public class RevComp {
         
         String rc = revcomp.run("ATGCATCCCAAATAANRW");
         System.out.println(rc);
+        
+        char[] buffer = "ttATGCATCCCaa".toCharArray();
+        revcomp.runInPlace(buffer, 2, 11);
+        System.out.println(new String(buffer));
     }
 }
@@ -0,0 +1,178 @@
+package org.ucb.c5.sequtils;
+
+/**
+ * Prefix-sum index of base composition over a growable DNA buffer
+ *
+ * After appending a sequence, the number of each base (and of classes of
+ * bases such as G/C) in any range is answered in constant time, so GC content
+ * can be checked globally or over sliding windows without rescanning.
+ *
+ * Bases are counted case-insensitively; anything other than A, C, G or T is
+ * counted as ambiguous.
+ */
+public class SequenceStats {
+
+    private static final int A = 0;
+    private static final int C = 1;
+    private static final int G = 2;
+    private static final int T = 3;
+
+    //counts[base][i] is the number of that base in the first i characters
+    private int[][] counts;
+    private int length;
+
+    public SequenceStats() {
+        counts = new int[4][64];
+    }
+
+    public SequenceStats(CharSequence seq) {
+        this();
+        append(seq);
+    }
+
+    /**
+     * Appends a sequence to the end of the indexed buffer
+     *
+     * @param seq the DNA to add
+     */
+    public void append(CharSequence seq) {
+        append(seq, 0, seq.length());
+    }
+
+    /**
+     * Appends a range of a sequence to the end of the indexed buffer
+     *
+     * @param seq the DNA to add
+     * @param start first index added, inclusive
+     * @param end last index added, exclusive
+     */
+    public void append(CharSequence seq, int start, int end) {
+        ensureCapacity(length + end - start + 1);
+        for (int i = start; i < end; i++) {
+            int base = baseIndex(seq.charAt(i));
+            for (int b = 0; b < 4; b++) {
+                counts[b][length + 1] = counts[b][length] + (b == base ? 1 : 0);
+            }
+            length++;
+        }
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int countA(int start, int end) {
+        return count(A, start, end);
+    }
+
+    public int countC(int start, int end) {
+        return count(C, start, end);
+    }
+
+    public int countG(int start, int end) {
+        return count(G, start, end);
+    }
+
+    public int countT(int start, int end) {
+        return count(T, start, end);
+    }
+
+    public int countGC(int start, int end) {
+        return count(G, start, end) + count(C, start, end);
+    }
+
+    public int countAT(int start, int end) {
+        return count(A, start, end) + count(T, start, end);
+    }
+
+    public int countPurines(int start, int end) {
+        return count(A, start, end) + count(G, start, end);
+    }
+
+    public int countAmbiguous(int start, int end) {
+        return (end - start) - countGC(start, end) - countAT(start, end);
+    }
+
+    /**
+     * Computes the fraction of G's and C's in a range
+     *
+     * @param start first index, inclusive
+     * @param end last index, exclusive
+     * @return the GC fraction, or 0 for an empty range
+     */
+    public double gcContent(int start, int end) {
+        if (end == start) {
+            return 0;
+        }
+        return (double) countGC(start, end) / (end - start);
+    }
+
+    /**
+     * Checks the GC content of every window of a fixed size that contains at
+     * least one base at or after 'from'.  Only windows touching new bases need
+     * checking when the earlier ones have already passed.
+     *
+     * If the buffer is shorter than a window, nothing is checked.
+     *
+     * @param window the number of bases in each window
+     * @param min lowest allowed GC fraction, inclusive
+     * @param max highest allowed GC fraction, inclusive
+     * @param from index of the first new base
+     * @return true if every such window is within bounds
+     */
+    public boolean gcWindowsWithin(int window, double min, double max, int from) {
+        int first = Math.max(0, from - window + 1);
+        for (int start = first; start + window <= length; start++) {
+            double GC = gcContent(start, start + window);
+            if (GC < min || GC > max) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int count(int base, int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range " + start + "-" + end + " of " + length);
+        }
+        return counts[base][end] - counts[base][start];
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= counts[0].length) {
+            return;
+        }
+        int capacity = Math.max(size, counts[0].length * 2);
+        for (int b = 0; b < 4; b++) {
+            int[] grown = new int[capacity];
+            System.arraycopy(counts[b], 0, grown, 0, length + 1);
+            counts[b] = grown;
+        }
+    }
+
+    private static int baseIndex(char c) {
+        switch (c) {
+            case 'A':
+            case 'a':
+                return A;
+            case 'C':
+            case 'c':
+                return C;
+            case 'G':
+            case 'g':
+                return G;
+            case 'T':
+            case 't':
+                return T;
+            default:
+                return -1;
+        }
+    }
+
+    public static void main(String[] args) {
+        SequenceStats stats = new SequenceStats("ATGGCGCGCAAATTTAAAGCGC");
+        System.out.println("GC overall: " + stats.gcContent(0, stats.length()));
+        System.out.println("GC of 3-9: " + stats.gcContent(3, 9));
+        System.out.println("Every 8bp within 25-75%: " + stats.gcWindowsWithin(8, 0.25, 0.75, 0));
+    }
+}
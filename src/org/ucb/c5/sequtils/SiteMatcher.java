@@ -0,0 +1,344 @@
+package org.ucb.c5.sequtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton for finding a set of DNA sites in a sequence
+ *
+ * Each site may contain IUPAC degenerate codes, which are expanded into their
+ * concrete ACGT sequences when the automaton is built.  The reverse complement
+ * of every site is compiled in as well, so a single forward scan of a sequence
+ * finds matches on both strands.  Matching is case-insensitive, and any base
+ * other than A, C, G or T in the scanned sequence never takes part in a match.
+ *
+ * Scanning with contains or firstHit does not allocate.
+ */
+public class SiteMatcher {
+
+    private static final int[] BASE_INDEX = new int[128];
+    private static final String[] IUPAC = new String[128];
+
+    static {
+        for (int i = 0; i < BASE_INDEX.length; i++) {
+            BASE_INDEX[i] = -1;
+        }
+        String bases = "ACGT";
+        for (int i = 0; i < bases.length(); i++) {
+            BASE_INDEX[bases.charAt(i)] = i;
+            BASE_INDEX[Character.toLowerCase(bases.charAt(i))] = i;
+        }
+
+        IUPAC['A'] = "A";
+        IUPAC['C'] = "C";
+        IUPAC['G'] = "G";
+        IUPAC['T'] = "T";
+        IUPAC['R'] = "AG";
+        IUPAC['Y'] = "CT";
+        IUPAC['S'] = "CG";
+        IUPAC['W'] = "AT";
+        IUPAC['K'] = "GT";
+        IUPAC['M'] = "AC";
+        IUPAC['B'] = "CGT";
+        IUPAC['D'] = "AGT";
+        IUPAC['H'] = "ACT";
+        IUPAC['V'] = "ACG";
+        IUPAC['N'] = "ACGT";
+    }
+
+    //Automaton, indexed by state * 4 + base
+    private final int[] transitions;
+
+    //True for each state at which some site ends, directly or through a suffix
+    private final boolean[] terminal;
+
+    //Head of the list of entries ending exactly at each state
+    private final int[] entryHead;
+
+    //Nearest suffix state that has entries of its own, or -1
+    private final int[] outputLink;
+
+    //One entry per concrete (expanded) site on each strand
+    private final List<String> entrySite = new ArrayList<>();
+    private final List<Boolean> entryReverse = new ArrayList<>();
+    private final List<Integer> entryLength = new ArrayList<>();
+    private final List<Integer> entryNext = new ArrayList<>();
+
+    //Length of the longest site
+    private int maxLength;
+
+    /**
+     * Compiles an automaton matching each site on either strand
+     *
+     * @param sites the sites to search for, possibly using IUPAC codes
+     */
+    public SiteMatcher(Collection<String> sites) {
+        RevComp revcomp = new RevComp();
+        revcomp.initiate();
+
+        //Build the trie, growing the state arrays as needed
+        int[] trie = new int[64 * 4];
+        List<Integer> heads = new ArrayList<>();
+        fill(trie, 0, trie.length, -1);
+        heads.add(-1);
+        int numStates = 1;
+
+        for (String site : sites) {
+            List<String> expanded = new ArrayList<>();
+            expand(site.toUpperCase(), 0, new char[site.length()], expanded);
+            for (String concrete : expanded) {
+                String rc = revcomp.run(concrete);
+                String[] strands = concrete.equals(rc) ? new String[]{concrete} : new String[]{concrete, rc};
+                for (int s = 0; s < strands.length; s++) {
+                    String pattern = strands[s];
+                    int state = 0;
+                    for (int i = 0; i < pattern.length(); i++) {
+                        int slot = state * 4 + BASE_INDEX[pattern.charAt(i)];
+                        if (trie[slot] == -1) {
+                            if ((numStates + 1) * 4 > trie.length) {
+                                int[] grown = new int[trie.length * 2];
+                                System.arraycopy(trie, 0, grown, 0, trie.length);
+                                fill(grown, trie.length, grown.length, -1);
+                                trie = grown;
+                            }
+                            trie[slot] = numStates++;
+                            heads.add(-1);
+                        }
+                        state = trie[slot];
+                    }
+                    maxLength = Math.max(maxLength, pattern.length());
+                    entrySite.add(site);
+                    entryReverse.add(s == 1);
+                    entryLength.add(pattern.length());
+                    entryNext.add(heads.get(state));
+                    heads.set(state, entrySite.size() - 1);
+                }
+            }
+        }
+
+        transitions = new int[numStates * 4];
+        System.arraycopy(trie, 0, transitions, 0, transitions.length);
+        terminal = new boolean[numStates];
+        entryHead = new int[numStates];
+        outputLink = new int[numStates];
+        for (int i = 0; i < numStates; i++) {
+            entryHead[i] = heads.get(i);
+            terminal[i] = entryHead[i] != -1;
+            outputLink[i] = -1;
+        }
+
+        //Breadth-first pass computing failure links, folded into the transitions
+        int[] fail = new int[numStates];
+        int[] queue = new int[numStates];
+        int qhead = 0;
+        int qtail = 0;
+        for (int b = 0; b < 4; b++) {
+            int child = transitions[b];
+            if (child == -1) {
+                transitions[b] = 0;
+            } else {
+                fail[child] = 0;
+                queue[qtail++] = child;
+            }
+        }
+        while (qhead < qtail) {
+            int state = queue[qhead++];
+            int f = fail[state];
+            outputLink[state] = entryHead[f] != -1 ? f : outputLink[f];
+            terminal[state] |= terminal[f];
+            for (int b = 0; b < 4; b++) {
+                int child = transitions[state * 4 + b];
+                if (child == -1) {
+                    transitions[state * 4 + b] = transitions[f * 4 + b];
+                } else {
+                    fail[child] = transitions[f * 4 + b];
+                    queue[qtail++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the length of the longest site, which bounds how far back a
+     * match can reach from any base
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Determines whether any site occurs in the sequence on either strand
+     *
+     * @param seq the DNA sequence to scan
+     * @return true if at least one site is found
+     */
+    public boolean contains(CharSequence seq) {
+        return firstHit(seq, 0, seq.length()) != -1;
+    }
+
+    /**
+     * Scans a range of a sequence for the first site on either strand
+     *
+     * @param seq the DNA sequence to scan
+     * @param start first index scanned, inclusive
+     * @param end last index scanned, exclusive
+     * @return the exclusive end index of the first match, or -1 if none
+     */
+    public int firstHit(CharSequence seq, int start, int end) {
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            int base = baseIndex(seq.charAt(i));
+            if (base < 0) {
+                state = 0;
+                continue;
+            }
+            state = transitions[state * 4 + base];
+            if (terminal[state]) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Scans a range of one sequence followed by the whole of another as
+     * though they were joined, so a site spanning the two is found without
+     * copying them into one buffer
+     *
+     * @param head the DNA sequence scanned first
+     * @param start first index of head scanned, inclusive
+     * @param end last index of head scanned, exclusive
+     * @param tail the DNA sequence scanned after head
+     * @return the exclusive end index of the first match, counted from start
+     * in the joined sequence, or -1 if none
+     */
+    public int firstHit(CharSequence head, int start, int end, CharSequence tail) {
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            state = step(state, head.charAt(i));
+            if (terminal[state]) {
+                return i + 1 - start;
+            }
+        }
+        for (int i = 0; i < tail.length(); i++) {
+            state = step(state, tail.charAt(i));
+            if (terminal[state]) {
+                return end - start + i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int step(int state, char c) {
+        int base = baseIndex(c);
+        return base < 0 ? 0 : transitions[state * 4 + base];
+    }
+
+    /**
+     * Finds every occurrence of every site on either strand
+     *
+     * @param seq the DNA sequence to scan
+     * @return the hits ordered by their end position
+     */
+    public List<Hit> findAll(CharSequence seq) {
+        List<Hit> out = new ArrayList<>();
+        int state = 0;
+        for (int i = 0; i < seq.length(); i++) {
+            int base = baseIndex(seq.charAt(i));
+            if (base < 0) {
+                state = 0;
+                continue;
+            }
+            state = transitions[state * 4 + base];
+            if (!terminal[state]) {
+                continue;
+            }
+            for (int s = entryHead[state] != -1 ? state : outputLink[state]; s != -1; s = outputLink[s]) {
+                for (int e = entryHead[s]; e != -1; e = entryNext.get(e)) {
+                    int len = entryLength.get(e);
+                    out.add(new Hit(entrySite.get(e), i + 1 - len, entryReverse.get(e)));
+                }
+            }
+        }
+        return out;
+    }
+
+    private static int baseIndex(char c) {
+        return c < 128 ? BASE_INDEX[c] : -1;
+    }
+
+    private static void expand(String site, int pos, char[] buffer, List<String> out) {
+        if (pos == site.length()) {
+            out.add(new String(buffer));
+            return;
+        }
+        char c = site.charAt(pos);
+        String options = c < 128 ? IUPAC[c] : null;
+        if (options == null) {
+            throw new IllegalArgumentException("not a DNA or IUPAC base: " + c);
+        }
+        for (int i = 0; i < options.length(); i++) {
+            buffer[pos] = options.charAt(i);
+            expand(site, pos + 1, buffer, out);
+        }
+    }
+
+    private static void fill(int[] array, int from, int to, int value) {
+        for (int i = from; i < to; i++) {
+            array[i] = value;
+        }
+    }
+
+    /**
+     * A single occurrence of a site within a scanned sequence
+     */
+    public static class Hit {
+
+        private final String site;
+        private final int position;
+        private final boolean reverse;
+
+        public Hit(String site, int position, boolean reverse) {
+            this.site = site;
+            this.position = position;
+            this.reverse = reverse;
+        }
+
+        /**
+         * @return the site as it was given to the matcher
+         */
+        public String getSite() {
+            return site;
+        }
+
+        /**
+         * @return the index in the scanned sequence of the first matched base
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * @return true if the site was found on the reverse strand
+         */
+        public boolean isReverse() {
+            return reverse;
+        }
+
+        @Override
+        public String toString() {
+            return site + (reverse ? " (-) at " : " (+) at ") + position;
+        }
+    }
+
+    public static void main(String[] args) {
+        List<String> sites = new ArrayList<>();
+        sites.add("GAATTC");   //EcoRI
+        sites.add("GGTCTC");   //BsaI
+        sites.add("GCNGC");    //Fnu4HI
+        SiteMatcher matcher = new SiteMatcher(sites);
+
+        System.out.println(matcher.findAll("ttgaattcAAGAGACCAAGCAGCtt"));
+    }
+}
@@ -1,16 +1,46 @@
 package org.ucb.c5.sequtils;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Translates a DNA sequence into a Protein sequence
  *
+ * Codons are looked up in a 64-entry table indexed by their 6-bit code
+ * (A=0, C=1, G=2, T=3, first base in the high bits), built from a rolling
+ * code as the sequence is read, so no codon Strings are created.  Bases are
+ * read case-insensitively; a codon containing anything other than A, C, G
+ * or T translates to X, and a trailing partial codon is ignored.
+ *
  * @author J. Christopher Anderson
  */
 public class Translate {
 
+    private static final int[] BASE_CODE = new int[128];
+
+    static {
+        for (int i = 0; i < BASE_CODE.length; i++) {
+            BASE_CODE[i] = -1;
+        }
+        String bases = "ACGT";
+        for (int i = 0; i < bases.length(); i++) {
+            BASE_CODE[bases.charAt(i)] = i;
+            BASE_CODE[Character.toLowerCase(bases.charAt(i))] = i;
+        }
+    }
+
+    //Size of the chunks read and written when streaming
+    private static final int BUFFER_SIZE = 8192;
+
     private Map<String, String> GeneticCode;
+    private char[] codonToAA;
 
     public void initiate() {
         GeneticCode = new HashMap<>();
@@ -79,6 +109,15 @@ public class Translate {
         GeneticCode.put("GGC", "G");
         GeneticCode.put("GGG", "G");
         GeneticCode.put("GGT", "G");
+
+        //Index the code by 6-bit codon code
+        codonToAA = new char[64];
+        for (Map.Entry<String, String> entry : GeneticCode.entrySet()) {
+            String codon = entry.getKey();
+            int code = (BASE_CODE[codon.charAt(0)] << 4) | (BASE_CODE[codon.charAt(1)] << 2)
+                    | BASE_CODE[codon.charAt(2)];
+            codonToAA[code] = entry.getValue().charAt(0);
+        }
     }
 
     /**
@@ -88,12 +127,198 @@ public class Translate {
      * @return the encoded protein
      */
     public String run(String seq) {
-        String dnaseq = seq.toUpperCase();
-        StringBuilder out = new StringBuilder();
-        for (int i = 0; i < dnaseq.length(); i += 3) {
-            String codon = dnaseq.substring(i, i + 3);
-            out.append(GeneticCode.get(codon));
+        return run((CharSequence) seq);
+    }
+
+    /**
+     * Inputs a DNA sequence and outputs the 0 frame encoded protein
+     *
+     * @param seq the input DNA sequence
+     * @return the encoded protein
+     */
+    public String run(CharSequence seq) {
+        char[] out = new char[seq.length() / 3];
+        for (int i = 0; i < out.length; i++) {
+            int b0 = baseCode(seq.charAt(3 * i));
+            int b1 = baseCode(seq.charAt(3 * i + 1));
+            int b2 = baseCode(seq.charAt(3 * i + 2));
+            out[i] = (b0 | b1 | b2) < 0 ? 'X' : codonToAA[(b0 << 4) | (b1 << 2) | b2];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Translates all three forward frames in a single pass
+     *
+     * @param seq the input DNA sequence
+     * @return the proteins encoded starting at offsets 0, 1 and 2
+     */
+    public String[] runFrames(CharSequence seq) {
+        return translateFrames(seq, false);
+    }
+
+    /**
+     * Translates all six frames in a single pass, reading the reverse strand
+     * through complemented codon codes rather than building it
+     *
+     * @param seq the input DNA sequence
+     * @return the proteins of forward frames 0, 1, 2 followed by those of
+     * reverse complement frames 0, 1, 2
+     */
+    public String[] runSixFrames(CharSequence seq) {
+        return translateFrames(seq, true);
+    }
+
+    private String[] translateFrames(CharSequence seq, boolean reverse) {
+        int len = seq.length();
+        char[][] frames = new char[reverse ? 6 : 3][];
+        for (int f = 0; f < 3; f++) {
+            int size = Math.max(0, (len - f) / 3);
+            frames[f] = new char[size];
+            if (reverse) {
+                frames[f + 3] = new char[size];
+            }
+        }
+
+        int code = 0;      //last three bases, first in the high bits
+        int rcCode = 0;    //reverse complement of the last three bases
+        int run = 0;       //number of unambiguous bases ending here
+        for (int i = 0; i < len; i++) {
+            int base = baseCode(seq.charAt(i));
+            if (base < 0) {
+                run = 0;
+            } else {
+                run++;
+                code = ((code << 2) | base) & 63;
+                rcCode = (rcCode >>> 2) | ((3 - base) << 4);
+            }
+            if (i < 2) {
+                continue;
+            }
+            int start = i - 2;
+            int f = start % 3;
+            frames[f][start / 3] = run >= 3 ? codonToAA[code] : 'X';
+            if (reverse) {
+                //this codon is read by the reverse frame whose offset lines up with it, from the far end
+                int rf = (len - 3 - start) % 3;
+                frames[rf + 3][(len - 3 - rf - start) / 3] = run >= 3 ? codonToAA[rcCode] : 'X';
+            }
         }
-        return out.toString();
+
+        String[] out = new String[frames.length];
+        for (int f = 0; f < frames.length; f++) {
+            out[f] = new String(frames[f]);
+        }
+        return out;
+    }
+
+    /**
+     * Translates frame 0 of a DNA sequence read from a Reader, writing the
+     * protein as it goes.  Whitespace such as line breaks is skipped, so
+     * only one buffer of sequence is held in memory at a time.
+     *
+     * @param in the DNA sequence
+     * @param out receives the encoded protein
+     * @throws IOException
+     */
+    public void run(Reader in, Writer out) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        Streamer streamer = new Streamer(out);
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            for (int i = 0; i < read; i++) {
+                streamer.accept(buffer[i]);
+            }
+        }
+        streamer.flush();
+    }
+
+    /**
+     * Translates frame 0 of an ASCII DNA sequence read from a byte channel,
+     * writing the protein as it goes.  Whitespace is skipped.
+     *
+     * @param in the DNA sequence
+     * @param out receives the encoded protein
+     * @throws IOException
+     */
+    public void run(ReadableByteChannel in, Writer out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        Streamer streamer = new Streamer(out);
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                streamer.accept((char) (buffer.get() & 0xFF));
+            }
+            buffer.clear();
+        }
+        streamer.flush();
+    }
+
+    /**
+     * @param c a base, in either case
+     * @return 0, 1, 2 or 3 for A, C, G or T; -1 for any other character
+     */
+    static int baseCode(char c) {
+        return c < 128 ? BASE_CODE[c] : -1;
+    }
+
+    /**
+     * Accumulates bases into codons and buffers the translated protein
+     */
+    private class Streamer {
+        private final Writer out;
+        private final char[] pending = new char[BUFFER_SIZE];
+        private int numPending = 0;
+        private int code = 0;
+        private int numBases = 0;
+        private boolean ambiguous = false;
+
+        Streamer(Writer out) {
+            this.out = out;
+        }
+
+        void accept(char c) throws IOException {
+            if (Character.isWhitespace(c)) {
+                return;
+            }
+            int base = baseCode(c);
+            if (base < 0) {
+                ambiguous = true;
+            } else {
+                code = (code << 2) | base;
+            }
+            if (++numBases < 3) {
+                return;
+            }
+            pending[numPending++] = ambiguous ? 'X' : codonToAA[code & 63];
+            if (numPending == pending.length) {
+                out.write(pending, 0, numPending);
+                numPending = 0;
+            }
+            code = 0;
+            numBases = 0;
+            ambiguous = false;
+        }
+
+        void flush() throws IOException {
+            out.write(pending, 0, numPending);
+            numPending = 0;
+            out.flush();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Translate translate = new Translate();
+        translate.initiate();
+
+        String seq = "ATGGCTAGCAAAGGAGAAGAACTTTTCACTGGAGTTGTCCCAATTCTTGTTGAATTAGATGGTGATGTTAATGGGCACAAATTTTAA";
+        System.out.println(translate.run(seq));
+        for (String frame : translate.runSixFrames(seq)) {
+            System.out.println(frame);
+        }
+
+        StringWriter out = new StringWriter();
+        translate.run(new StringReader(seq.substring(0, 45) + "\n" + seq.substring(45)), out);
+        System.out.println(out);
     }
 }
@@ -0,0 +1,116 @@
+package org.ucb.c5.utils;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads FASTA records one at a time, so a file of any size can be processed
+ * holding only the current record in memory
+ *
+ * A record starts with a '>' line naming it: the name runs up to the first
+ * space and the rest of the line is its description.  The lines up to the next
+ * '>' are joined, without whitespace, into its sequence.  Lines starting with
+ * ';' are comments and are skipped.
+ */
+public class FastaReader implements Closeable {
+
+    private final BufferedReader in;
+    private String next_header;
+    private long line_number = 0;
+
+    /**
+     * @param in the FASTA data; closed when the reader is closed
+     */
+    public FastaReader(Reader in) {
+        this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+    }
+
+    /**
+     * Reads the next record
+     *
+     * @return the record, or null at the end of the input
+     * @throws IOException if the input cannot be read or has sequence before the first header
+     */
+    public Record next() throws IOException {
+        String header = next_header;
+        next_header = null;
+        StringBuilder seq = new StringBuilder();
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            line_number++;
+            if (line.startsWith(">")) {
+                if (header != null) {
+                    next_header = line;
+                    break;
+                }
+                header = line;
+                continue;
+            }
+            if (line.startsWith(";")) {
+                continue;
+            }
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    if (header == null) {
+                        throw new IOException("sequence before the first header on line " + line_number);
+                    }
+                    seq.append(c);
+                }
+            }
+        }
+        if (header == null) {
+            return null;
+        }
+
+        String title = header.substring(1).trim();
+        int space = indexOfWhitespace(title);
+        String name = space < 0 ? title : title.substring(0, space);
+        String description = space < 0 ? "" : title.substring(space + 1).trim();
+        return new Record(name, description, seq.toString());
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private static int indexOfWhitespace(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (Character.isWhitespace(str.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * One named sequence
+     */
+    public static class Record {
+        private final String name;
+        private final String description;
+        private final String sequence;
+
+        public Record(String name, String description, String sequence) {
+            this.name = name;
+            this.description = description;
+            this.sequence = sequence;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public String getSequence() {
+            return sequence;
+        }
+    }
+}
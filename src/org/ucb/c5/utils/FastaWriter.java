@@ -0,0 +1,124 @@
+package org.ucb.c5.utils;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes FASTA records, wrapping sequences at a fixed number of columns
+ *
+ * A sequence can also be written in pieces with begin(), append() and end(),
+ * so it never has to exist as one String.
+ */
+public class FastaWriter implements Closeable, Flushable {
+
+    public static final int DEFAULT_WIDTH = 60;
+
+    private final Writer out;
+    private final int width;
+    private int column = 0;
+    private boolean in_record = false;
+
+    /**
+     * @param out where records are written; closed when the writer is closed
+     */
+    public FastaWriter(Writer out) {
+        this(out, DEFAULT_WIDTH);
+    }
+
+    /**
+     * @param out where records are written; closed when the writer is closed
+     * @param width the number of bases per line
+     */
+    public FastaWriter(Writer out, int width) {
+        if (width < 1) {
+            throw new IllegalArgumentException("width must be at least 1: " + width);
+        }
+        this.out = out;
+        this.width = width;
+    }
+
+    /**
+     * Writes a whole record
+     *
+     * @param name the name of the sequence
+     * @param description text following the name, or null
+     * @param seq the sequence
+     * @throws IOException
+     */
+    public void write(String name, String description, CharSequence seq) throws IOException {
+        begin(name, description);
+        append(seq);
+        end();
+    }
+
+    /**
+     * Writes the header of a record whose sequence follows through append()
+     *
+     * @param name the name of the sequence
+     * @param description text following the name, or null
+     * @throws IOException
+     */
+    public void begin(String name, String description) throws IOException {
+        if (in_record) {
+            end();
+        }
+        out.write('>');
+        out.write(name);
+        if (description != null && !description.isEmpty()) {
+            out.write(' ');
+            out.write(description);
+        }
+        out.write('\n');
+        column = 0;
+        in_record = true;
+    }
+
+    /**
+     * Appends to the sequence of the current record
+     *
+     * @param seq the next bases
+     * @throws IOException
+     */
+    public void append(CharSequence seq) throws IOException {
+        if (!in_record) {
+            throw new IllegalStateException("append before begin");
+        }
+        int pos = 0;
+        while (pos < seq.length()) {
+            int len = Math.min(width - column, seq.length() - pos);
+            out.append(seq, pos, pos + len);
+            pos += len;
+            column += len;
+            if (column == width) {
+                out.write('\n');
+                column = 0;
+            }
+        }
+    }
+
+    /**
+     * Ends the current record
+     *
+     * @throws IOException
+     */
+    public void end() throws IOException {
+        if (in_record && column > 0) {
+            out.write('\n');
+        }
+        column = 0;
+        in_record = false;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        end();
+        out.close();
+    }
+}
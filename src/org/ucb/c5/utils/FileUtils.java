@@ -8,19 +8,25 @@ package org.ucb.c5.utils;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 import java.net.URL;
-import java.net.URLConnection;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
 import org.ucb.c5.C5;
 
 
@@ -34,29 +40,7 @@ public class FileUtils {
      */
     public static byte[] dumpInputStream(InputStream instream) 
                                         throws IOException {
-        int lastindex = 0;
-        int increment;
-        byte[] A = new byte[2048];
-        byte[] B;
-        do {
-            B = new byte[2*A.length];
-            System.arraycopy(A, 0, B, 0, A.length);
-            A = B;
-            try {
-                increment = instream.read(A, lastindex, A.length - lastindex);
-            } catch (IOException e) {
-                throw e;
-            }
-            if (increment == -1)
-                /* EOF, no characters read */
-                break;
-            lastindex += increment;
-        } while (lastindex >= A.length);
-
-        /* copy A into B of precisely correct length */
-        B = new byte[lastindex];
-        System.arraycopy(A, 0, B, 0, B.length);
-        return B;
+        return instream.readAllBytes();
     }
 
     /**
@@ -77,12 +61,8 @@ public class FileUtils {
     }
 
     public static void writeFile(String datafile, String filePath) {
-        try {
-            Writer output = null;
-            File file = new File(filePath);
-            output = new FileWriter(file);
+        try (Writer output = Files.newBufferedWriter(Paths.get(filePath), StandardCharsets.UTF_8)) {
             output.write(datafile);
-            output.close();
         } catch (IOException ex) {
             ex.printStackTrace();
         }
@@ -117,49 +97,152 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Reads a whole file as UTF-8 text
+     *
+     * @param path the file to read
+     * @return its content
+     * @throws Exception
+     */
     public static String readFile(String path) throws Exception {
-        File f = new File(path);
-        if (!f.isFile()) {
-            System.err.println("path is not a file: " + path);
-            throw new Exception();
-        }
+        return new String(readAllBytes(path), StandardCharsets.UTF_8);
+    }
 
-        FileInputStream s;
-        try {
-            s = new FileInputStream(f);
-        } catch (FileNotFoundException e) {
-            System.err.println("File not found: " + path);
-            throw e;
+    /**
+     * Reads a whole file
+     *
+     * @param path the file to read
+     * @return its bytes
+     * @throws Exception
+     */
+    public static byte[] readAllBytes(String path) throws Exception {
+        Path p = Paths.get(path);
+        if (!Files.isRegularFile(p)) {
+            System.err.println("path is not a file: " + path);
+            throw new FileNotFoundException(path);
         }
-
-        byte[] content;
         try {
-            content = dumpInputStream(s);
+            return Files.readAllBytes(p);
         } catch (IOException e) {
             System.err.println("Error reading: " + path);
             throw e;
         }
+    }
 
-        return new String(content);    }
+    /**
+     * Opens a file for reading as UTF-8 text
+     *
+     * @param path the file to read
+     * @return a buffered reader, to be closed by the caller
+     * @throws IOException
+     */
+    public static BufferedReader newBufferedReader(String path) throws IOException {
+        return Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8);
+    }
 
-    public static String readResourceFile(String relPath) throws Exception {
+    /**
+     * Lazily reads the lines of a UTF-8 file, so a large file is never held
+     * in memory all at once.  Lines are split on \n, \r or \r\n and do not
+     * include the terminator.
+     *
+     * @param path the file to read
+     * @return the lines, to be closed by the caller (e.g. try-with-resources)
+     * @throws IOException
+     */
+    public static Stream<String> lines(String path) throws IOException {
+        return Files.lines(Paths.get(path), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Memory-maps a file read-only, so its bytes are paged in by the OS as
+     * they are read instead of being copied onto the heap
+     *
+     * @param path the file to map
+     * @return a read-only view of the file
+     * @throws IOException if the file cannot be read or is 2GB or larger
+     */
+    public static MappedByteBuffer mapFile(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("file is too large to map: " + path);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Opens a resource on the classpath, relative to the org.ucb.c5 package
+     *
+     * @param relPath path of the resource, ie composition/data/rbs_options.txt
+     * @return a stream of its bytes, to be closed by the caller
+     * @throws IOException if there is no such resource
+     */
+    public static InputStream openResource(String relPath) throws IOException {
         URL url = new C5().getClass().getResource(relPath);
-        
-        BufferedReader in = new BufferedReader(
-        new InputStreamReader(url.openStream()));
-
-        StringBuilder sb = new StringBuilder();
-        String inputLine;
-        while ((inputLine = in.readLine()) != null)
-            sb.append(inputLine).append("\n");
-        in.close();
-        
-        return sb.toString();
+        if (url == null) {
+            throw new FileNotFoundException("resource not found: " + relPath);
+        }
+        return url.openStream();
+    }
+
+    /**
+     * Opens a resource for reading as UTF-8 text
+     *
+     * @param relPath path of the resource relative to the org.ucb.c5 package
+     * @return a buffered reader, to be closed by the caller
+     * @throws IOException if there is no such resource
+     */
+    public static BufferedReader newResourceReader(String relPath) throws IOException {
+        return new BufferedReader(new InputStreamReader(openResource(relPath), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Lazily reads the lines of a UTF-8 resource
+     *
+     * @param relPath path of the resource relative to the org.ucb.c5 package
+     * @return the lines, to be closed by the caller (e.g. try-with-resources)
+     * @throws IOException if there is no such resource
+     */
+    public static Stream<String> resourceLines(String relPath) throws IOException {
+        final BufferedReader in = newResourceReader(relPath);
+        return in.lines().onClose(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads a UTF-8 resource with every line ending normalized to \n, and a
+     * \n after the last line
+     *
+     * @param relPath path of the resource relative to the org.ucb.c5 package
+     * @return its content
+     * @throws Exception
+     */
+    public static String readResourceFile(String relPath) throws Exception {
+        byte[] content;
+        try (InputStream in = openResource(relPath)) {
+            content = in.readAllBytes();
+        }
+        String text = new String(content, StandardCharsets.UTF_8);
+        if (text.indexOf('\r') >= 0) {
+            text = text.replace("\r\n", "\n").replace('\r', '\n');
+        }
+        if (!text.isEmpty() && !text.endsWith("\n")) {
+            text = text + "\n";
+        }
+        return text;
     }
     
     public static void writeResourceFile(String datafile, String relPath) throws Exception {
         OutputStream os = new FileOutputStream(relPath);
-        final PrintStream printStream = new PrintStream(os);
+        final PrintStream printStream = new PrintStream(os, false, "UTF-8");
         printStream.println(datafile);
         printStream.close();
     }
@@ -0,0 +1,331 @@
+package org.ucb.c5.utils;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters and latency histograms for the stages of a design
+ *
+ * The design components record into the default registry as they run: how
+ * many windows, permutations and RBS options they go through and how long
+ * each protein, window and RBS search takes.  Primitives called from inside
+ * those loops, such as SequenceChecker and HairpinCounter, record nothing
+ * themselves; their callers tally the checks, rejections and bases scored
+ * and add them once per window or search, under the primitive's name, ie
+ * sequence_checker_rejected_total.  Recording only adds to LongAdders, so it
+ * takes no lock and threads recording at once rarely touch the same memory.  A
+ * snapshot of every metric can be read through the registry or written in
+ * the Prometheus text format, ie to be served to a scraper or saved at the
+ * end of a batch.
+ *
+ * Metrics are created once, usually into static fields, and looked up by
+ * name; asking again for a name returns the same metric.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry shared = new MetricsRegistry();
+
+    //sorted by name, so the text format lists metrics in a stable order
+    private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    /**
+     * @return the registry the design components record into
+     */
+    public static MetricsRegistry getDefault() {
+        return shared;
+    }
+
+    /**
+     * Returns the counter of a name, creating it on first use
+     *
+     * @param name a Prometheus metric name, ie sequence_chooser_windows_total
+     * @param help what the counter counts
+     * @return the counter
+     * @throws IllegalArgumentException if a histogram has that name
+     */
+    public Counter counter(String name, String help) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metric = register(new Counter(name, help));
+        }
+        if (!(metric instanceof Counter)) {
+            throw new IllegalArgumentException(name + " is not a counter");
+        }
+        return (Counter) metric;
+    }
+
+    /**
+     * Returns the latency histogram of a name, creating it on first use
+     *
+     * @param name a Prometheus metric name, ie rbs_chooser_run_seconds
+     * @param help what the histogram times
+     * @return the histogram
+     * @throws IllegalArgumentException if a counter has that name
+     */
+    public Histogram histogram(String name, String help) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            metric = register(new Histogram(name, help));
+        }
+        if (!(metric instanceof Histogram)) {
+            throw new IllegalArgumentException(name + " is not a histogram");
+        }
+        return (Histogram) metric;
+    }
+
+    /**
+     * Adds a metric unless another thread registered its name first
+     *
+     * @return the metric registered under the name
+     */
+    private Metric register(Metric metric) {
+        Metric existing = metrics.putIfAbsent(metric.name, metric);
+        return existing == null ? metric : existing;
+    }
+
+    /**
+     * @param name the name of a metric
+     * @return the metric, or null if none has that name
+     */
+    public Metric get(String name) {
+        return metrics.get(name);
+    }
+
+    /**
+     * @return every metric, in order of name
+     */
+    public List<Metric> getMetrics() {
+        return Collections.unmodifiableList(new ArrayList<>(metrics.values()));
+    }
+
+    /**
+     * Sets every metric back to zero; metrics stay registered
+     */
+    public void reset() {
+        for (Metric metric : metrics.values()) {
+            metric.reset();
+        }
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format
+     *
+     * @param out where the metrics are written; flushed but not closed
+     * @throws IOException
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        for (Metric metric : metrics.values()) {
+            out.write("# HELP " + metric.name + " " + escapeHelp(metric.help) + "\n");
+            out.write("# TYPE " + metric.name + " " + metric.type() + "\n");
+            metric.write(out);
+        }
+        out.flush();
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public String toPrometheus() {
+        StringWriter out = new StringWriter();
+        try {
+            writePrometheus(out);
+        } catch (IOException e) {
+            //a StringWriter does not throw
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    /**
+     * A named value of the registry
+     */
+    public abstract static class Metric {
+        private final String name;
+        private final String help;
+
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHelp() {
+            return help;
+        }
+
+        abstract String type();
+
+        abstract void write(Writer out) throws IOException;
+
+        abstract void reset();
+    }
+
+    /**
+     * A count that only goes up
+     */
+    public static class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        Counter(String name, String help) {
+            super(name, help);
+        }
+
+        public void inc() {
+            value.increment();
+        }
+
+        /**
+         * @param amount how much to add, not negative
+         */
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        @Override
+        String type() {
+            return "counter";
+        }
+
+        @Override
+        void write(Writer out) throws IOException {
+            out.write(getName() + " " + value.sum() + "\n");
+        }
+
+        @Override
+        void reset() {
+            value.reset();
+        }
+    }
+
+    /**
+     * Counts durations into buckets whose upper bounds grow fourfold from a
+     * microsecond to about 17 seconds
+     *
+     * Callers time with System.nanoTime and record the difference:
+     *
+     *   long start = System.nanoTime();
+     *   ...
+     *   histogram.record(System.nanoTime() - start);
+     */
+    public static class Histogram extends Metric {
+        private static final long[] BOUNDS = new long[13];
+
+        static {
+            long bound = 1000;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                BOUNDS[i] = bound;
+                bound *= 4;
+            }
+        }
+
+        //buckets[i] counts durations within (BOUNDS[i-1], BOUNDS[i]]; the last one those above every bound
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder sum = new LongAdder();
+
+        Histogram(String name, String help) {
+            super(name, help);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @param nanos a duration in nanoseconds
+         */
+        public void record(long nanos) {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && nanos > BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            sum.add(nanos);
+        }
+
+        /**
+         * @return the number of durations recorded
+         */
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * @return the total of the durations recorded, in seconds
+         */
+        public double getSum() {
+            return sum.sum() / 1e9;
+        }
+
+        /**
+         * @return the upper bound of each bucket but the last, in seconds
+         */
+        public double[] getBounds() {
+            double[] out = new double[BOUNDS.length];
+            for (int i = 0; i < BOUNDS.length; i++) {
+                out[i] = BOUNDS[i] / 1e9;
+            }
+            return out;
+        }
+
+        /**
+         * @return how many durations fell in each bucket, the last counting
+         * those above every bound; not cumulative
+         */
+        public long[] getBucketCounts() {
+            long[] out = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                out[i] = buckets[i].sum();
+            }
+            return out;
+        }
+
+        @Override
+        String type() {
+            return "histogram";
+        }
+
+        @Override
+        void write(Writer out) throws IOException {
+            //Prometheus buckets are cumulative, so each count includes the buckets below it
+            long[] counts = getBucketCounts();
+            double[] bounds = getBounds();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String le = i < bounds.length ? Double.toString(bounds[i]) : "+Inf";
+                out.write(getName() + "_bucket{le=\"" + le + "\"} " + cumulative + "\n");
+            }
+            out.write(getName() + "_sum " + getSum() + "\n");
+            out.write(getName() + "_count " + cumulative + "\n");
+        }
+
+        @Override
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            sum.reset();
+        }
+    }
+}
@@ -6,35 +6,353 @@
 
 package org.ucb.c5.utils;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Parses a TSV file into a list of objects expressed as key-value pairs
+ *
+ * For large files, open() streams rows through a Cursor instead: column names
+ * are resolved to indices once, and each field of the current row is a
+ * CharSequence over a single reused line buffer, so memory stays
+ * proportional to one row however many rows there are.
+ *
  * @author J. Christopher Anderson
  */
 public class TSVParser {
-    
+
     public List<Map<String,String>> run(String filedata) {
-        //Split the data into lines
-        String[] lines = filedata.split("\\r|\\r?\\n");
-        
-        //Split the first line which contains the terms
-        String[] terms = lines[0].split("\t");
-        
-        //Construct Maps of data for the remaining lines and bundle up
+        //Construct Maps of data for every line after the terms line and bundle up
         List<Map<String,String>> out = new ArrayList<>();
-        for(int i=1; i<lines.length; i++) {
-            String[] values = lines[i].split("\t");
-            Map<String,String> obj = new HashMap<>();
-            for(int x=0; x<terms.length; x++) {
-                obj.put(terms[x], values[x]);
+        try (Cursor cursor = open(new StringReader(filedata), true)) {
+            List<String> terms = cursor.getColumns();
+            while (cursor.next()) {
+                Map<String,String> obj = new HashMap<>();
+                for(int x=0; x<terms.size(); x++) {
+                    obj.put(terms.get(x), cursor.getString(x));
+                }
+                out.add(obj);
             }
-            out.add(obj);
+        } catch (IOException e) {
+            //a StringReader does not throw
+            throw new IllegalStateException(e);
         }
-        
+
         return out;
     }
+
+    /**
+     * Starts streaming the rows of TSV data
+     *
+     * @param in the data; closed when the cursor is closed
+     * @param header true if the first line names the columns
+     * @return a cursor positioned before the first row
+     * @throws IOException
+     */
+    public Cursor open(Reader in, boolean header) throws IOException {
+        return new Cursor(in, header);
+    }
+
+    /**
+     * A position in a stream of TSV rows
+     *
+     * Empty lines are skipped.  The CharSequences returned for fields are only
+     * valid until the next call to next(); use getString to keep a value.
+     */
+    public static class Cursor implements Closeable {
+
+        private static final int BUFFER_SIZE = 8192;
+
+        private final Reader in;
+        private final char[] buffer = new char[BUFFER_SIZE];
+        private int buffer_pos = 0;
+        private int buffer_end = 0;
+        private boolean skip_newline = false; //the last line ended in \r, so a following \n ends nothing
+
+        private char[] line = new char[256];
+        private int line_len = 0;
+        private int[] field_start = new int[16];
+        private int[] field_end = new int[16];
+        private Field[] fields = new Field[16];
+        private int num_fields = 0;
+        private long line_number = 0;
+
+        private final List<String> columns;
+        private final Map<String, Integer> column_index = new HashMap<>();
+
+        private Cursor(Reader in, boolean header) throws IOException {
+            this.in = in;
+            List<String> names = new ArrayList<>();
+            if (header && next()) {
+                for (int i = 0; i < num_fields; i++) {
+                    names.add(getString(i));
+                    column_index.putIfAbsent(names.get(i), i);
+                }
+            }
+            columns = Collections.unmodifiableList(names);
+        }
+
+        /**
+         * @return the names of the columns, or an empty list without a header
+         */
+        public List<String> getColumns() {
+            return columns;
+        }
+
+        /**
+         * Resolves a column name to the index the fields are read by
+         *
+         * @param name a name from the header
+         * @return the index of the first column of that name
+         * @throws IllegalArgumentException if no column has that name
+         */
+        public int columnIndex(String name) {
+            Integer index = column_index.get(name);
+            if (index == null) {
+                throw new IllegalArgumentException("no column named " + name);
+            }
+            return index;
+        }
+
+        /**
+         * Advances to the next non-empty row
+         *
+         * @return false once there are no more rows
+         * @throws IOException
+         */
+        public boolean next() throws IOException {
+            while (readLine()) {
+                if (line_len > 0) {
+                    split();
+                    return true;
+                }
+            }
+            num_fields = 0;
+            return false;
+        }
+
+        /**
+         * @return the number of fields in the current row
+         */
+        public int size() {
+            return num_fields;
+        }
+
+        /**
+         * @return the line of the input the current row was read from, from 1
+         */
+        public long getLineNumber() {
+            return line_number;
+        }
+
+        /**
+         * @param column the index of a column
+         * @return the field, valid until the next row is read
+         */
+        public CharSequence get(int column) {
+            checkColumn(column);
+            Field field = fields[column];
+            if (field == null) {
+                field = new Field();
+                fields[column] = field;
+            }
+            field.start = field_start[column];
+            field.end = field_end[column];
+            return field;
+        }
+
+        public CharSequence get(String name) {
+            return get(columnIndex(name));
+        }
+
+        /**
+         * @param column the index of a column
+         * @return the field, as a String that may be kept
+         */
+        public String getString(int column) {
+            checkColumn(column);
+            return new String(line, field_start[column], field_end[column] - field_start[column]);
+        }
+
+        public String getString(String name) {
+            return getString(columnIndex(name));
+        }
+
+        /**
+         * @param column the index of a column
+         * @return the field parsed as a decimal integer
+         * @throws NumberFormatException if it is not one
+         */
+        public int getInt(int column) {
+            checkColumn(column);
+            int start = field_start[column];
+            int end = field_end[column];
+            boolean negative = start < end && line[start] == '-';
+            int i = negative || (start < end && line[start] == '+') ? start + 1 : start;
+            if (i == end) {
+                throw new NumberFormatException("not an integer: \"" + get(column) + "\" on line " + line_number);
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = line[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("not an integer: \"" + get(column) + "\" on line " + line_number);
+                }
+                value = value * 10 + digit;
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    throw new NumberFormatException("integer too large: \"" + get(column) + "\" on line " + line_number);
+                }
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("integer too large: \"" + get(column) + "\" on line " + line_number);
+            }
+            return (int) value;
+        }
+
+        public int getInt(String name) {
+            return getInt(columnIndex(name));
+        }
+
+        /**
+         * @param column the index of a column
+         * @return the field parsed as a double
+         * @throws NumberFormatException if it is not one
+         */
+        public double getDouble(int column) {
+            return Double.parseDouble(getString(column));
+        }
+
+        public double getDouble(String name) {
+            return getDouble(columnIndex(name));
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        /**
+         * Reads the next line into the line buffer, without its terminator
+         *
+         * @return false at the end of the input
+         */
+        private boolean readLine() throws IOException {
+            line_len = 0;
+            boolean read_any = false;
+            while (true) {
+                if (buffer_pos == buffer_end) {
+                    buffer_end = in.read(buffer, 0, buffer.length);
+                    buffer_pos = 0;
+                    if (buffer_end <= 0) {
+                        buffer_end = 0;
+                        if (read_any) {
+                            line_number++;
+                        }
+                        return read_any;
+                    }
+                }
+                if (skip_newline) {
+                    skip_newline = false;
+                    if (buffer[buffer_pos] == '\n') {
+                        buffer_pos++;
+                        continue;
+                    }
+                }
+                read_any = true;
+
+                //copy up to the end of the line or of the buffer
+                int start = buffer_pos;
+                while (buffer_pos < buffer_end && buffer[buffer_pos] != '\n' && buffer[buffer_pos] != '\r') {
+                    buffer_pos++;
+                }
+                append(start, buffer_pos);
+                if (buffer_pos < buffer_end) {
+                    skip_newline = buffer[buffer_pos] == '\r';
+                    buffer_pos++;
+                    line_number++;
+                    return true;
+                }
+            }
+        }
+
+        private void append(int start, int end) {
+            int len = end - start;
+            if (line_len + len > line.length) {
+                line = Arrays.copyOf(line, Math.max(line_len + len, line.length * 2));
+            }
+            System.arraycopy(buffer, start, line, line_len, len);
+            line_len += len;
+        }
+
+        /**
+         * Finds the tab-separated fields of the line buffer
+         */
+        private void split() {
+            num_fields = 0;
+            int start = 0;
+            for (int i = 0; i <= line_len; i++) {
+                if (i == line_len || line[i] == '\t') {
+                    if (num_fields == field_start.length) {
+                        field_start = Arrays.copyOf(field_start, num_fields * 2);
+                        field_end = Arrays.copyOf(field_end, num_fields * 2);
+                        fields = Arrays.copyOf(fields, num_fields * 2);
+                    }
+                    field_start[num_fields] = start;
+                    field_end[num_fields] = i;
+                    num_fields++;
+                    start = i + 1;
+                }
+            }
+        }
+
+        private void checkColumn(int column) {
+            if (column < 0 || column >= num_fields) {
+                throw new IndexOutOfBoundsException("line " + line_number + " has no column " + column
+                        + ", only " + num_fields);
+            }
+        }
+
+        /**
+         * A field of the current row, read from the line buffer
+         */
+        private class Field implements CharSequence {
+            private int start;
+            private int end;
+
+            @Override
+            public int length() {
+                return end - start;
+            }
+
+            @Override
+            public char charAt(int index) {
+                if (index < 0 || index >= end - start) {
+                    throw new IndexOutOfBoundsException("index " + index + " of " + (end - start));
+                }
+                return line[start + index];
+            }
+
+            @Override
+            public CharSequence subSequence(int from, int to) {
+                if (from < 0 || to > end - start || from > to) {
+                    throw new IndexOutOfBoundsException("range " + from + "-" + to + " of " + (end - start));
+                }
+                return new String(line, start + from, to - from);
+            }
+
+            @Override
+            public String toString() {
+                return new String(line, start, end - start);
+            }
+        }
+    }
 }
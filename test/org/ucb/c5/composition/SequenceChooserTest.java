@@ -0,0 +1,103 @@
+package org.ucb.c5.composition;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.ucb.c5.composition.model.Host;
+import org.ucb.c5.sequtils.SequenceStats;
+import org.ucb.c5.sequtils.Translate;
+import org.ucb.c5.utils.MetricsRegistry;
+
+/**
+ * Checks the designs of the beam engine against the constraints every design
+ * must meet, and that the window memo of the sampling engine never changes a
+ * design
+ */
+class SequenceChooserTest {
+
+    //long enough for the beam to run over a few hundred codons
+    private static final String PEPTIDE = "MALLSSSLSSQIPTGSHPLTHTQCIPHFSTTINAGISAGKPRSFYLRWGKGSNKIIACVGEGTTSLPYQSAEKTDSLSAP"
+            + "TLVKREFPPGFWKDHVIDSLTSSHKVSAAEEKRMETLISEIKNIFRSMGYGETNPSAYDTAWVARIPAVDGSEHPEFPETLEWILQNQLKDGSWGEGFYF"
+            + "LAYDRILATLACIITLTLWRTGETQIRKGIEFFKTQAGKIEDEADSHRPSGFEIVFPAMLKEAKVLGLDLPYELPFIKQIIEKREAKLERLPTNILYALP"
+            + "TTLLYSLEGLQEIVDWEKIIKLQSKDGSFLTSPASTAAVFMRTGNKKCLEFLNFVLKKFGNHVPCHYPLDLFERLWAVDTVERLGIDHHFKEEIKDALDY"
+            + "VYSHWDERGIGWARENPIPDIDDTAMGLRILRLHGYNVSSDVLKTFRDENGEFFCFLGQTQRGVTDMLNVNRCSHVAFPGETIMQEAKLCTERYLRNALE";
+
+    @Test
+    void beamDesignsEncodeThePeptideWithoutForbiddenSites() throws Exception {
+        SequenceChooser chooser = beam();
+        String dna = String.join("", chooser.run(PEPTIDE, Host.Ecoli));
+        assertValid(dna);
+        double GC = new SequenceStats(dna).gcContent(0, dna.length());
+        assertTrue(GC > 0.40 && GC < 0.60, "GC " + GC);
+    }
+
+    @Test
+    void beamDesignsKeepEveryLocalWindowInBounds() throws Exception {
+        SequenceChooser chooser = beam();
+        chooser.setLocalGC(50, 0.3, 0.7);
+        String dna = String.join("", chooser.run(PEPTIDE, Host.Ecoli));
+        assertValid(dna);
+        assertTrue(new SequenceStats(dna).gcWindowsWithin(50, 0.3, 0.7, 0));
+    }
+
+    @Test
+    void beamDesignsDoNotDependOnThePool() throws Exception {
+        String expected = null;
+        for (int parallelism : new int[]{1, 2, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                SequenceChooser chooser = beam();
+                chooser.setPool(pool);
+                String dna = String.join("", chooser.run(PEPTIDE, Host.Ecoli));
+                if (expected == null) {
+                    expected = dna;
+                }
+                assertEquals(expected, dna, "parallelism " + parallelism);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void memoHitsGiveTheSameDesignAsNoMemo() throws Exception {
+        SequenceChooser fresh = new SequenceChooser();
+        fresh.initiate();
+        fresh.setMemoSize(0);
+        String expected = String.join("", fresh.run(PEPTIDE, Host.Ecoli));
+
+        //a memo too small for the protein evicts windows as it goes
+        SequenceChooser small = new SequenceChooser();
+        small.initiate();
+        small.setMemoSize(8);
+        assertEquals(expected, String.join("", small.run(PEPTIDE, Host.Ecoli)));
+        assertEquals(expected, String.join("", small.run(PEPTIDE, Host.Ecoli)));
+
+        //a large one remembers every window, so the second run takes them all from the memo
+        MetricsRegistry.Counter hits = MetricsRegistry.getDefault().counter(
+                "sequence_chooser_window_memo_hits_total", "Windows whose codons were taken from the memo");
+        SequenceChooser chooser = new SequenceChooser();
+        chooser.initiate();
+        assertEquals(expected, String.join("", chooser.run(PEPTIDE, Host.Ecoli)));
+        long before = hits.get();
+        assertEquals(expected, String.join("", chooser.run(PEPTIDE, Host.Ecoli)));
+        assertEquals((PEPTIDE.length() + 2) / 3, hits.get() - before);
+    }
+
+    private static SequenceChooser beam() throws Exception {
+        SequenceChooser chooser = new SequenceChooser();
+        chooser.initiate();
+        chooser.setEngine(SequenceChooser.Engine.BEAM);
+        return chooser;
+    }
+
+    private static void assertValid(String dna) throws Exception {
+        Translate translator = new Translate();
+        translator.initiate();
+        assertEquals(PEPTIDE, translator.run(dna));
+        SequenceChecker checker = new SequenceChecker();
+        assertTrue(checker.run(dna), "forbidden site in " + dna);
+    }
+}
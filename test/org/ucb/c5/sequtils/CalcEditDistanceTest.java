@@ -0,0 +1,136 @@
+package org.ucb.c5.sequtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the bit-vector edit distance against the dynamic programming matrix
+ * it replaced
+ */
+class CalcEditDistanceTest {
+
+    //around one, two and many 64-bit words of pattern
+    private static final int[] LENGTHS = {0, 1, 2, 63, 64, 65, 127, 128, 129, 500, 513, 700};
+
+    private final CalcEditDistance calc = new CalcEditDistance();
+
+    @Test
+    void matchesTheMatrixAcrossWordBoundaries() throws Exception {
+        Random rand = new Random(1);
+        for (int len1 : LENGTHS) {
+            for (int len2 : LENGTHS) {
+                String s1 = randomSeq(rand, len1, "ACGT");
+                //a mutated copy as well as an unrelated string, so distances span the whole range
+                String s2 = rand.nextBoolean() ? mutate(rand, s1, len2) : randomSeq(rand, len2, "ACGT");
+                assertEquals(matrix(s1, s2), calc.run(s1, s2), len1 + " vs " + len2);
+                assertEquals(matrix(s2, s1), calc.run(s2, s1), len2 + " vs " + len1);
+            }
+        }
+    }
+
+    @Test
+    void matchesTheMatrixOnRandomStrings() throws Exception {
+        Random rand = new Random(2);
+        for (int trial = 0; trial < 1000; trial++) {
+            String alphabet = rand.nextBoolean() ? "ACGT" : "ACDEFGHIKLMNPQRSTVWY";
+            String s1 = randomSeq(rand, rand.nextInt(200), alphabet);
+            String s2 = mutate(rand, s1, Math.max(0, s1.length() + rand.nextInt(21) - 10));
+            assertEquals(matrix(s1, s2), calc.run(s1, s2), s1 + " vs " + s2);
+        }
+    }
+
+    @Test
+    void boundedGivesUpOnlyPastTheBound() throws Exception {
+        Random rand = new Random(3);
+        for (int trial = 0; trial < 1000; trial++) {
+            int len = LENGTHS[rand.nextInt(LENGTHS.length)];
+            String s1 = randomSeq(rand, len, "ACGT");
+            String s2 = mutate(rand, s1, Math.max(0, len + rand.nextInt(11) - 5));
+            int max = rand.nextInt(len / 4 + 3);
+            int expected = Math.min(matrix(s1, s2), max + 1);
+            assertEquals(expected, calc.runBounded(s1, s2, max), s1 + " vs " + s2 + " within " + max);
+        }
+    }
+
+    @Test
+    void batchMatchesSingleCalls() throws Exception {
+        Random rand = new Random(4);
+        for (int len : LENGTHS) {
+            String query = randomSeq(rand, len, "ACGT");
+            String[] targets = new String[20];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = i % 2 == 0 ? mutate(rand, query, Math.max(0, len + rand.nextInt(7) - 3))
+                        : randomSeq(rand, rand.nextInt(150), "ACGT");
+            }
+            int[] out = new int[targets.length];
+            int[] bounded = new int[targets.length];
+            calc.runBatch(query, targets, out);
+            calc.runBatch(query, targets, 5, bounded);
+            for (int i = 0; i < targets.length; i++) {
+                int expected = matrix(query, targets[i]);
+                assertEquals(expected, out[i], query + " vs " + targets[i]);
+                assertEquals(Math.min(expected, 6), bounded[i], query + " vs " + targets[i] + " within 5");
+            }
+        }
+    }
+
+    @Test
+    void emptyAndNonAsciiStrings() throws Exception {
+        assertEquals(0, calc.run("", ""));
+        assertEquals(3, calc.run("", "ACG"));
+        assertEquals(3, calc.run("ACG", ""));
+        assertEquals(1, calc.runBounded("", "ACG", 0));
+        assertEquals(1, calc.run("MSK\u00e9", "MSKE"));
+        assertEquals(2, calc.run("\u03b1\u03b2\u03b3", "\u03b1\u03b3\u03b2"));
+    }
+
+    /**
+     * The distance as CalcEditDistance computed it before the bit-vector
+     * algorithm, filling in the whole matrix
+     */
+    private static int matrix(String s1, String s2) {
+        int[][] dist = new int[s1.length() + 1][s2.length() + 1];
+        for (int a = 0; a <= s1.length(); a++) {
+            for (int b = 0; b <= s2.length(); b++) {
+                if (a == 0) {
+                    dist[a][b] = b;
+                } else if (b == 0) {
+                    dist[a][b] = a;
+                } else if (s1.charAt(a - 1) == s2.charAt(b - 1)) {
+                    dist[a][b] = dist[a - 1][b - 1];
+                } else {
+                    dist[a][b] = 1 + Math.min(Math.min(dist[a][b - 1], dist[a - 1][b]), dist[a - 1][b - 1]);
+                }
+            }
+        }
+        return dist[s1.length()][s2.length()];
+    }
+
+    /**
+     * @return s with a few random edits, cut or padded to the given length
+     */
+    private static String mutate(Random rand, String s, int length) {
+        StringBuilder out = new StringBuilder(s);
+        int edits = rand.nextInt(Math.max(1, s.length() / 10 + 1));
+        for (int e = 0; e < edits && out.length() > 0; e++) {
+            out.setCharAt(rand.nextInt(out.length()), "ACGT".charAt(rand.nextInt(4)));
+        }
+        while (out.length() > length) {
+            out.deleteCharAt(rand.nextInt(out.length()));
+        }
+        while (out.length() < length) {
+            out.insert(rand.nextInt(out.length() + 1), "ACGT".charAt(rand.nextInt(4)));
+        }
+        return out.toString();
+    }
+
+    private static String randomSeq(Random rand, int length, String alphabet) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            out.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,91 @@
+package org.ucb.c5.sequtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the word-parallel hairpin engine scores exactly as the scalar
+ * loop does
+ */
+class HairpinCounterTest {
+
+    //around the 32 hairpins a block covers, and the length HairpinCounter switches engines at
+    private static final int[] EDGE_LENGTHS = {0, 1, 16, 17, 21, 22, 31, 32, 33, 48, 49, 63, 64, 65, 127, 128, 129,
+        255, 256, 257, 1000, 5000};
+
+    private final HairpinCounter counter = new HairpinCounter();
+
+    @Test
+    void bitParallelMatchesScalarAroundBlockEdges() {
+        Random rand = new Random(1);
+        for (int len : EDGE_LENGTHS) {
+            for (int trial = 0; trial < 50; trial++) {
+                String seq = randomSeq(rand, len, "ACGT");
+                assertSame(seq);
+            }
+        }
+    }
+
+    @Test
+    void bitParallelMatchesScalarOnRandomLengths() {
+        Random rand = new Random(2);
+        for (int trial = 0; trial < 2000; trial++) {
+            //a few bases repeated often, so long hairpins of every strength turn up
+            String alphabet = rand.nextBoolean() ? "ACGT" : "GGCCAT";
+            String seq = randomSeq(rand, rand.nextInt(400), alphabet);
+            if (rand.nextInt(4) == 0) {
+                seq = seq.toLowerCase();
+            }
+            assertSame(seq);
+        }
+    }
+
+    @Test
+    void rangesScoreAsTheirOwnSequence() {
+        Random rand = new Random(3);
+        for (int trial = 0; trial < 500; trial++) {
+            String seq = randomSeq(rand, 300 + rand.nextInt(300), "ACGT");
+            int start = rand.nextInt(seq.length());
+            int end = start + rand.nextInt(seq.length() - start + 1);
+            assertEquals(counter.runScalar(seq.substring(start, end), 0, end - start),
+                    counter.run(seq, start, end), seq + " [" + start + ", " + end + ")");
+        }
+    }
+
+    @Test
+    void otherBasesFallBackToTheScalarLoop() throws Exception {
+        Random rand = new Random(4);
+        for (int len : new int[]{255, 256, 257, 1000}) {
+            char[] bases = randomSeq(rand, len, "ACGT").toCharArray();
+            bases[rand.nextInt(len)] = 'N';
+            String seq = new String(bases);
+
+            assertNull(BitParallelHairpinCounter.pack(seq, 0, len));
+            assertEquals(counter.runScalar(seq, 0, len), counter.run(seq), seq);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new BitParallelHairpinCounter().run("ACGTNACGT"));
+    }
+
+    /**
+     * Scores a sequence with the scalar loop, the word-parallel engine and
+     * HairpinCounter.run, which picks between them by length
+     */
+    private void assertSame(String seq) {
+        double expected = counter.runScalar(seq, 0, seq.length());
+        long[] packed = BitParallelHairpinCounter.pack(seq, 0, seq.length());
+        assertEquals(expected, BitParallelHairpinCounter.score(packed, seq.length()), seq);
+        assertEquals(expected, counter.run(seq, 0, seq.length()), seq);
+    }
+
+    private static String randomSeq(Random rand, int length, String alphabet) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            out.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+        }
+        return out.toString();
+    }
+}
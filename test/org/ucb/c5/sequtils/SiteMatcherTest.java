@@ -0,0 +1,181 @@
+package org.ucb.c5.sequtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks SiteMatcher against a direct scan of every site at every position
+ * on both strands
+ */
+class SiteMatcherTest {
+
+    //the forbidden sites of SequenceChecker
+    private static final List<String> FORBIDDEN = Arrays.asList(
+            "AAAAAAAA", "TTTTTTTT", "CCCCCCCC", "GGGGGGGG", "ATATATAT", "CAATTG", "GAATTC", "GGATCC",
+            "AGATCT", "ACTAGT", "TCTAGA", "GGTCTC", "CGTCTC", "CACCTGC", "CTGCAG", "CTCGAG", "GCGGCCGC",
+            "AAGCTT");
+
+    //degenerate sites, some of whose expansions are reverse complements of each other
+    private static final List<String> DEGENERATE = Arrays.asList("GANTC", "CCWGG", "GRCGYC", "ACNNNNGTAYC", "TTAA");
+
+    private static final String IUPAC = "ACGTRYSWKMBDHVN";
+    private static final String[] OPTIONS = {
+        "A", "C", "G", "T", "AG", "CT", "CG", "AT", "GT", "AC", "CGT", "AGT", "ACT", "ACG", "ACGT"};
+
+    private final RevComp revcomp = new RevComp();
+
+    @Test
+    void containsMatchesTheStringScan() {
+        SiteMatcher matcher = new SiteMatcher(FORBIDDEN);
+        Random rand = new Random(1);
+        for (int trial = 0; trial < 2000; trial++) {
+            String seq = randomSeq(rand, 1 + rand.nextInt(120), "ACGT");
+            if (rand.nextBoolean()) {
+                seq = seq.toLowerCase();
+            }
+            assertEquals(oldContains(FORBIDDEN, seq), matcher.contains(seq), seq);
+        }
+    }
+
+    @Test
+    void findAllMatchesTheDirectScanOnBothStrands() {
+        for (List<String> sites : Arrays.asList(FORBIDDEN, DEGENERATE)) {
+            SiteMatcher matcher = new SiteMatcher(sites);
+            Random rand = new Random(2);
+            for (int trial = 0; trial < 2000; trial++) {
+                //a few N's and x's, which never take part in a match
+                String seq = randomSeq(rand, 1 + rand.nextInt(80), "ACGTACGTACGTACGTNx");
+                List<String> expected = directHits(sites, seq, 0, seq.length());
+                List<String> actual = new ArrayList<>();
+                for (SiteMatcher.Hit hit : matcher.findAll(seq)) {
+                    actual.add(hit.getSite() + " " + hit.getPosition() + " " + hit.isReverse());
+                }
+                Collections.sort(expected);
+                Collections.sort(actual);
+                assertEquals(expected, actual, seq);
+            }
+        }
+    }
+
+    @Test
+    void firstHitOnlyCountsSitesWithinTheRange() {
+        for (List<String> sites : Arrays.asList(FORBIDDEN, DEGENERATE)) {
+            SiteMatcher matcher = new SiteMatcher(sites);
+            Random rand = new Random(3);
+            for (int trial = 0; trial < 2000; trial++) {
+                String seq = randomSeq(rand, 1 + rand.nextInt(80), "ACGTACGTACGTN");
+                int start = rand.nextInt(seq.length() + 1);
+                int end = start + rand.nextInt(seq.length() - start + 1);
+                assertEquals(directFirstHit(sites, seq, start, end), matcher.firstHit(seq, start, end),
+                        seq + " [" + start + ", " + end + ")");
+            }
+        }
+    }
+
+    @Test
+    void joinedScanMatchesTheScanOfTheCopy() {
+        for (List<String> sites : Arrays.asList(FORBIDDEN, DEGENERATE)) {
+            SiteMatcher matcher = new SiteMatcher(sites);
+            Random rand = new Random(4);
+            for (int trial = 0; trial < 2000; trial++) {
+                String head = randomSeq(rand, rand.nextInt(40), "ACGTACGTACGTN");
+                String tail = randomSeq(rand, rand.nextInt(30), "ACGTACGTACGTN");
+                int start = rand.nextInt(head.length() + 1);
+                int end = start + rand.nextInt(head.length() - start + 1);
+                String joined = head.substring(start, end) + tail;
+                assertEquals(matcher.firstHit(joined, 0, joined.length()), matcher.firstHit(head, start, end, tail),
+                        head + " [" + start + ", " + end + ") + " + tail);
+            }
+        }
+    }
+
+    @Test
+    void overlappingHitsAreAllFound() {
+        SiteMatcher matcher = new SiteMatcher(Arrays.asList("AAAAAAAA", "GAATTC", "AATT"));
+        //ten A's hold three poly(A) hits; GAATTC holds AATT and is its own reverse complement
+        List<SiteMatcher.Hit> hits = matcher.findAll("AAAAAAAAAAGAATTC");
+        List<String> actual = new ArrayList<>();
+        for (SiteMatcher.Hit hit : hits) {
+            actual.add(hit.toString());
+        }
+        assertEquals(Arrays.asList("AAAAAAAA (+) at 0", "AAAAAAAA (+) at 1", "AAAAAAAA (+) at 2",
+                "AATT (+) at 11", "GAATTC (+) at 10"), actual);
+        assertEquals(-1, matcher.firstHit("", 0, 0));
+        assertEquals(-1, new SiteMatcher(FORBIDDEN).firstHit("AAAAAAAA", 1, 8));
+    }
+
+    /**
+     * SequenceChecker.run before SiteMatcher: both strands joined by an x,
+     * then String.contains for each site
+     */
+    private boolean oldContains(List<String> sites, String seq) {
+        String combined = (seq + "x" + revcomp.run(seq)).toUpperCase();
+        for (String site : sites) {
+            if (combined.contains(site)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Every hit as "site position reverse".  A stretch matching a site is a
+     * forward hit; one whose reverse complement matches is a reverse hit,
+     * unless it is its own reverse complement.
+     */
+    private List<String> directHits(List<String> sites, String seq, int start, int end) {
+        List<String> out = new ArrayList<>();
+        for (String site : sites) {
+            for (int pos = start; pos + site.length() <= end; pos++) {
+                String stretch = seq.substring(pos, pos + site.length()).toUpperCase();
+                if (!stretch.matches("[ACGT]*")) {
+                    continue;
+                }
+                String rc = revcomp.run(stretch);
+                if (matches(site, stretch)) {
+                    out.add(site + " " + pos + " false");
+                }
+                if (matches(site, rc) && !rc.equals(stretch)) {
+                    out.add(site + " " + pos + " true");
+                }
+            }
+        }
+        return out;
+    }
+
+    private int directFirstHit(List<String> sites, String seq, int start, int end) {
+        int first = -1;
+        for (String hit : directHits(sites, seq, start, end)) {
+            String[] fields = hit.split(" ");
+            int hit_end = Integer.parseInt(fields[1]) + fields[0].length();
+            if (first == -1 || hit_end < first) {
+                first = hit_end;
+            }
+        }
+        return first;
+    }
+
+    private static boolean matches(String site, String concrete) {
+        for (int i = 0; i < site.length(); i++) {
+            String options = OPTIONS[IUPAC.indexOf(site.charAt(i))];
+            if (options.indexOf(concrete.charAt(i)) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String randomSeq(Random rand, int length, String alphabet) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            out.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+        }
+        return out.toString();
+    }
+}